@@ -0,0 +1,355 @@
+package ru.ifmo.ctddev.maltsev.walk;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Benchmarks of hashing, traversal and output writing of {@link RecursiveWalk} on generated trees.
+ * <p>
+ * Three trees are generated in the work directory from a fixed seed, so they are the same on every run:
+ * <ul>
+ *     <li><tt>tiny</tt>: {@value #TINY_DIRECTORIES} directories of {@value #TINY_FILES} files up to 1 KiB,</li>
+ *     <li><tt>huge</tt>: {@value #HUGE_FILES} files of {@value #HUGE_SIZE_MB} MiB,</li>
+ *     <li><tt>deep</tt>: a chain of {@value #DEEP_DEPTH} nested directories with a 4 KiB file in each.</li>
+ * </ul>
+ * A tree is reused while its marker file is present. Every benchmark runs warmup iterations, which
+ * also bring the tree into the page cache, then measured ones, and prints the mean score with its
+ * standard deviation over iterations.
+ */
+public class WalkBenchmark {
+
+    private static final String USAGE = "Usage: WalkBenchmark <work directory> [-warmup n] [-iterations n] [-only prefix]";
+
+    private static final long SEED = 0x5eed_be9c_4a11_0001L;
+    private static final int TINY_DIRECTORIES = 100;
+    private static final int TINY_FILES = 200;
+    private static final int HUGE_FILES = 2;
+    private static final int HUGE_SIZE_MB = 256;
+    private static final int DEEP_DEPTH = 256;
+    private static final int WRITE_LINES = 1_000_000;
+    private static final String MARKER = ".generated";
+
+    private static volatile int blackhole;
+
+    private interface Benchmark {
+        /**
+         * Runs one iteration and returns the number of processed units.
+         */
+        double run() throws IOException;
+    }
+
+    private static class Result {
+        final String name;
+        final String unit;
+        final double[] scores;
+
+        Result(String name, String unit, double[] scores) {
+            this.name = name;
+            this.unit = unit;
+            this.scores = scores;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0 || args.length % 2 == 0) {
+            System.err.println(USAGE);
+            return;
+        }
+        Path work = Paths.get(args[0]);
+        int warmup = 3;
+        int iterations = 5;
+        String only = "";
+        for (int i = 1; i < args.length; i += 2) {
+            switch (args[i]) {
+                case "-warmup":
+                    warmup = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-iterations":
+                    iterations = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-only":
+                    only = args[i + 1];
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i] + "\n" + USAGE);
+                    return;
+            }
+        }
+
+        Path tiny = generate(work.resolve("tiny"), WalkBenchmark::generateTiny);
+        Path huge = generate(work.resolve("huge"), WalkBenchmark::generateHuge);
+        Path deep = generate(work.resolve("deep"), WalkBenchmark::generateDeep);
+        List<Path> tinyFiles = files(tiny);
+        List<Path> hugeFiles = files(huge);
+
+        Path input = work.resolve("input.txt");
+        Files.write(input, Arrays.asList(tiny.toString(), deep.toString()));
+        double walked = traverse(tiny) + traverse(deep);
+
+        List<Result> results = new ArrayList<>();
+        for (HashAlgorithm algorithm : HashAlgorithm.values()) {
+            Digester digester = new Digester(algorithm.newHasher(), 16L << 20, 0, null, new WalkStats());
+            String name = "hash." + algorithm.id();
+            measure(results, only, name + ".tiny", "MB/s", warmup, iterations, () -> hashAll(digester, tinyFiles));
+            measure(results, only, name + ".huge", "MB/s", warmup, iterations, () -> hashAll(digester, hugeFiles));
+        }
+        Digester streaming = new Digester(HashAlgorithm.FNV1.newHasher(), Long.MAX_VALUE, 0, null, new WalkStats());
+        Digester async = new Digester(HashAlgorithm.FNV1.newHasher(), Long.MAX_VALUE, 16, null, new WalkStats());
+        measure(results, only, "hash.fnv1.huge.stream", "MB/s", warmup, iterations, () -> hashAll(streaming, hugeFiles));
+        measure(results, only, "hash.fnv1.huge.async16", "MB/s", warmup, iterations, () -> hashAll(async, hugeFiles));
+        measure(results, only, "traverse.tiny", "files/s", warmup, iterations, () -> traverse(tiny));
+        measure(results, only, "traverse.deep", "files/s", warmup, iterations, () -> traverse(deep));
+        measure(results, only, "write.lines", "lines/s", warmup, iterations, () -> writeLines(tinyFiles));
+        Path text = work.resolve("results.txt");
+        Path binary = work.resolve("results.bin");
+        writeResults(tinyFiles, text, binary);
+        measure(results, only, "scan.text", "results/s", warmup, iterations, () -> scanText(text));
+        measure(results, only, "scan.binary", "results/s", warmup, iterations, () -> scanBinary(binary, false));
+        measure(results, only, "scan.binary.strings", "results/s", warmup, iterations, () -> scanBinary(binary, true));
+        measure(results, only, "walk.tiny+deep", "files/s", warmup, iterations,
+                () -> walk(input, work.resolve("output.txt"), walked));
+
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "%-28s %14s %12s  %s", "Benchmark", "Score", "Error", "Units"));
+        for (Result result : results) {
+            double mean = Arrays.stream(result.scores).average().orElse(0);
+            double variance = Arrays.stream(result.scores).map(s -> (s - mean) * (s - mean)).sum()
+                    / Math.max(1, result.scores.length - 1);
+            System.out.println(String.format(Locale.ROOT, "%-28s %14.1f +- %10.1f  %s",
+                    result.name, mean, Math.sqrt(variance), result.unit));
+        }
+    }
+
+    /**
+     * Runs the benchmark if its name starts with <tt>only</tt> and adds its result to <tt>results</tt>.
+     */
+    private static void measure(List<Result> results, String only, String name, String unit,
+                                int warmup, int iterations, Benchmark benchmark) throws IOException {
+        if (!name.startsWith(only)) {
+            return;
+        }
+        double[] scores = new double[iterations];
+        for (int i = -warmup; i < iterations; i++) {
+            long start = System.nanoTime();
+            double units = benchmark.run();
+            double score = units / ((System.nanoTime() - start) / 1e9);
+            System.out.println(String.format(Locale.ROOT, "%s %s %d: %.1f %s",
+                    name, i < 0 ? "warmup" : "iteration", i < 0 ? i + warmup + 1 : i + 1, score, unit));
+            if (i >= 0) {
+                scores[i] = score;
+            }
+        }
+        results.add(new Result(name, unit, scores));
+    }
+
+    private static double hashAll(Digester digester, List<Path> files) throws IOException {
+        long bytes = 0;
+        for (Path file : files) {
+            long size = Files.size(file);
+            blackhole ^= Arrays.hashCode(digester.hash(file, size));
+            bytes += size;
+        }
+        return bytes / (double) (1 << 20);
+    }
+
+    private static long traverse(Path root) throws IOException {
+        long[] files = new long[1];
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                blackhole ^= (int) attributes.size();
+                files[0]++;
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files[0];
+    }
+
+    private static long writeLines(List<Path> files) throws IOException {
+        byte[] digest = new byte[8];
+        try (TextResultSink sink = new TextResultSink(new DiscardingChannel(), new WalkStats())) {
+            for (int i = 0; i < WRITE_LINES; i++) {
+                digest[i & 7]++;
+                sink.write(files.get(i % files.size()).toString(), digest);
+            }
+        }
+        return WRITE_LINES;
+    }
+
+    /**
+     * Writes {@value #WRITE_LINES} results for the files in both formats.
+     */
+    private static void writeResults(List<Path> files, Path text, Path binary) throws IOException {
+        List<BasicFileAttributes> attributes = new ArrayList<>();
+        for (Path file : files) {
+            attributes.add(Files.readAttributes(file, BasicFileAttributes.class));
+        }
+        byte[] digest = new byte[4];
+        try (ResultSink textSink = new TextResultSink(FileChannel.open(text, WRITE, CREATE, TRUNCATE_EXISTING), new WalkStats());
+             ResultSink binarySink = new BinaryResultSink(FileChannel.open(binary, WRITE, CREATE, TRUNCATE_EXISTING),
+                     HashAlgorithm.FNV1, new WalkStats())) {
+            for (int i = 0; i < WRITE_LINES; i++) {
+                digest[i & 3]++;
+                String file = files.get(i % files.size()).toString();
+                textSink.write(file, attributes.get(i % files.size()), digest);
+                binarySink.write(file, attributes.get(i % files.size()), digest);
+            }
+        }
+    }
+
+    /**
+     * Parses text results the way a downstream job has to: splits lines and decodes digests.
+     */
+    private static double scanText(Path text) throws IOException {
+        long results = 0;
+        int sink = 0;
+        byte[] digest = new byte[4];
+        try (BufferedReader reader = Files.newBufferedReader(text)) {
+            for (String line; (line = reader.readLine()) != null; results++) {
+                int space = line.indexOf(' ');
+                for (int i = 0; i < digest.length; i++) {
+                    digest[i] = (byte) Integer.parseInt(line.substring(2 * i, 2 * i + 2), 16);
+                }
+                sink ^= digest[0] ^ line.substring(space + 1).length();
+            }
+        }
+        blackhole ^= sink;
+        return results;
+    }
+
+    /**
+     * Reads binary results, decoding paths to strings only if <tt>strings</tt> is set.
+     */
+    private static double scanBinary(Path binary, boolean strings) throws IOException {
+        long results = 0;
+        int sink = 0;
+        byte[] digest = new byte[4];
+        try (WalkResultReader reader = new WalkResultReader(FileChannel.open(binary))) {
+            for (; reader.next(); results++) {
+                reader.digest(digest);
+                int path = strings ? reader.path().length() : reader.pathBytes()[reader.pathLength() - 1];
+                sink ^= digest[0] ^ path ^ (int) reader.size();
+            }
+        }
+        blackhole ^= sink;
+        return results;
+    }
+
+    private static double walk(Path input, Path output, double files) {
+        PrintStream err = System.err;
+        System.setErr(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        try {
+            RecursiveWalk.main(new String[]{input.toString(), output.toString()});
+        } finally {
+            System.setErr(err);
+        }
+        return files;
+    }
+
+    private static class DiscardingChannel implements WritableByteChannel {
+        @Override
+        public int write(ByteBuffer buffer) {
+            int length = buffer.remaining();
+            blackhole ^= buffer.get(buffer.limit() - 1);
+            buffer.position(buffer.limit());
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private interface Generator {
+        void generate(Path root, SplittableRandom random) throws IOException;
+    }
+
+    private static Path generate(Path root, Generator generator) throws IOException {
+        if (Files.exists(root.resolve(MARKER))) {
+            return root;
+        }
+        System.out.println("Generating " + root);
+        Files.createDirectories(root);
+        generator.generate(root, new SplittableRandom(SEED));
+        Files.createFile(root.resolve(MARKER));
+        return root;
+    }
+
+    private static void generateTiny(Path root, SplittableRandom random) throws IOException {
+        for (int i = 0; i < TINY_DIRECTORIES; i++) {
+            Path directory = Files.createDirectories(root.resolve("d" + i));
+            for (int j = 0; j < TINY_FILES; j++) {
+                Files.write(directory.resolve("f" + j), randomBytes(random, random.nextInt(1025)));
+            }
+        }
+    }
+
+    private static void generateHuge(Path root, SplittableRandom random) throws IOException {
+        for (int i = 0; i < HUGE_FILES; i++) {
+            try (OutputStream out = Files.newOutputStream(root.resolve("f" + i))) {
+                for (int mb = 0; mb < HUGE_SIZE_MB; mb++) {
+                    out.write(randomBytes(random, 1 << 20));
+                }
+            }
+        }
+    }
+
+    private static void generateDeep(Path root, SplittableRandom random) throws IOException {
+        Path directory = root;
+        for (int i = 0; i < DEEP_DEPTH; i++) {
+            directory = Files.createDirectories(directory.resolve("d"));
+            Files.write(directory.resolve("f"), randomBytes(random, 4096));
+        }
+    }
+
+    private static byte[] randomBytes(SplittableRandom random, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i += 8) {
+            long value = random.nextLong();
+            for (int j = i; j < Math.min(i + 8, length); j++, value >>>= 8) {
+                bytes[j] = (byte) value;
+            }
+        }
+        return bytes;
+    }
+
+    private static List<Path> files(Path root) throws IOException {
+        List<Path> files = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (!file.getFileName().toString().equals(MARKER)) {
+                    files.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        files.sort(null);
+        return files;
+    }
+}
@@ -0,0 +1,2 @@
+@ECHO off
+java -cp .\out\production\JavaAdvanced\ ru.ifmo.ctddev.maltsev.walk.WalkBenchmark %*
\ No newline at end of file
@@ -1,14 +1,30 @@
 package ru.ifmo.ctddev.maltsev.arrayset;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
 
 /**
  * Created by Антон on 20.02.2017.
  */
-public class ArraySet<E> extends AbstractSet<E> implements SortedSet<E> {
+public class ArraySet<E> extends AbstractSet<E> implements NavigableSet<E> {
 
-    private List<E> list = null;
-    private Comparator<? super E> comparator = null;
+    // Which elements a merge keeps: those only in the first set, in both sets, only in the second set
+    private static final int ONLY_A = 1;
+    private static final int BOTH = 2;
+    private static final int ONLY_B = 4;
+    // Sets which differ in size more than this many times are merged by galloping through the larger one
+    private static final int GALLOP_RATIO = 16;
+    // Parallel merges do not split inputs with fewer elements in total
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+    // Parallel batch searches do not split fewer keys
+    private static final int PARALLEL_KEYS_THRESHOLD = 1 << 13;
+
+    private final E[] array;
+    private final int from;
+    private final int to;
+    private final Comparator<? super E> comparator;
 
     public ArraySet() {
         this((Comparator<E>) null);
@@ -18,41 +34,574 @@ public class ArraySet<E> extends AbstractSet<E> implements SortedSet<E> {
         this(collection, null);
     }
 
+    @SuppressWarnings("unchecked")
     public ArraySet(Comparator<? super E> comparator) {
-        list = Collections.emptyList();
-        this.comparator = comparator;
+        this((E[]) new Object[0], 0, 0, comparator);
     }
 
+    /**
+     * Copies <tt>collection</tt> to an array, which is sorted and deduplicated in place. A {@link SortedSet}
+     * with the same comparator, or any collection already in strictly increasing order, is not sorted.
+     */
+    @SuppressWarnings("unchecked")
     public ArraySet(Collection<? extends E> collection, Comparator<? super E> comparator) {
+        E[] array = (E[]) collection.toArray();
+        int size = collection instanceof SortedSet && Objects.equals(((SortedSet<?>) collection).comparator(), comparator)
+                ? array.length
+                : sortDistinct(array, comparator);
+        this.array = size == array.length ? array : Arrays.copyOf(array, size);
+        this.from = 0;
+        this.to = size;
         this.comparator = comparator;
-        TreeSet<E> treeSet = new TreeSet<>(comparator);
-        treeSet.addAll(collection);
-        list = new ArrayList<>(treeSet);
     }
 
-    private ArraySet(List<E> list, Comparator<? super E> comparator, boolean flag) {
-        this.list = list;
+    /**
+     * View of elements of <tt>array</tt> from <tt>from</tt> inclusive to <tt>to</tt> exclusive.
+     */
+    private ArraySet(E[] array, int from, int to, Comparator<? super E> comparator) {
+        this.array = array;
+        this.from = from;
+        this.to = to;
         this.comparator = comparator;
     }
 
+    /**
+     * Sorts <tt>array</tt> unless it is sorted already and moves the first of every run of equal elements
+     * to the beginning, as {@link TreeSet#addAll(Collection)} would keep it. Returns number of distinct elements.
+     */
+    private static <E> int sortDistinct(E[] array, Comparator<? super E> comparator) {
+        int sorted = 1;
+        while (sorted < array.length && compare(array[sorted - 1], array[sorted], comparator) < 0) {
+            sorted++;
+        }
+        if (sorted >= array.length) {
+            return array.length;
+        }
+        // The sort is stable and finds the sorted prefix in linear time
+        Arrays.sort(array, comparator);
+        int size = 1;
+        for (int i = 1; i < array.length; i++) {
+            if (compare(array[size - 1], array[i], comparator) != 0) {
+                array[size++] = array[i];
+            }
+        }
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <E> int compare(E a, E b, Comparator<? super E> comparator) {
+        return comparator == null ? ((Comparable<? super E>) a).compareTo(b) : comparator.compare(a, b);
+    }
+
+    /**
+     * Returns elements of <tt>a</tt> and of <tt>b</tt>. Sets must be ordered by equal comparators,
+     * an element contained in both is taken from <tt>a</tt>.
+     */
+    public static <E> ArraySet<E> union(ArraySet<E> a, ArraySet<E> b) {
+        return merge(a, b, ONLY_A | BOTH | ONLY_B, false);
+    }
+
+    public static <E> ArraySet<E> intersection(ArraySet<E> a, ArraySet<E> b) {
+        return merge(a, b, BOTH, false);
+    }
+
+    /**
+     * Returns elements of <tt>a</tt> which are not contained in <tt>b</tt>.
+     */
+    public static <E> ArraySet<E> difference(ArraySet<E> a, ArraySet<E> b) {
+        return merge(a, b, ONLY_A, false);
+    }
+
+    public static <E> ArraySet<E> symmetricDifference(ArraySet<E> a, ArraySet<E> b) {
+        return merge(a, b, ONLY_A | ONLY_B, false);
+    }
+
+    /**
+     * Same as {@link #union(ArraySet, ArraySet)}, but large sets are merged in parallel
+     * in the {@link ForkJoinPool#commonPool() common pool}.
+     */
+    public static <E> ArraySet<E> parallelUnion(ArraySet<E> a, ArraySet<E> b) {
+        return merge(a, b, ONLY_A | BOTH | ONLY_B, true);
+    }
+
+    public static <E> ArraySet<E> parallelIntersection(ArraySet<E> a, ArraySet<E> b) {
+        return merge(a, b, BOTH, true);
+    }
+
+    public static <E> ArraySet<E> parallelDifference(ArraySet<E> a, ArraySet<E> b) {
+        return merge(a, b, ONLY_A, true);
+    }
+
+    public static <E> ArraySet<E> parallelSymmetricDifference(ArraySet<E> a, ArraySet<E> b) {
+        return merge(a, b, ONLY_A | ONLY_B, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> ArraySet<E> merge(ArraySet<E> a, ArraySet<E> b, int keep, boolean parallel) {
+        if (!Objects.equals(a.comparator, b.comparator)) {
+            throw new IllegalArgumentException("Sets are ordered by different comparators");
+        }
+        int size;
+        E[] out;
+        if (parallel && a.size() + b.size() > PARALLEL_THRESHOLD) {
+            // Every part of the inputs is merged at the offset of its elements, then parts are moved together
+            out = (E[]) new Object[a.size() + b.size()];
+            Merge<E> merge = new Merge<>(a.array, a.from, a.to, b.array, b.from, b.to, a.comparator, keep, out, 0);
+            ForkJoinPool.commonPool().invoke(merge);
+            size = merge.compact(0);
+        } else {
+            out = (E[]) new Object[(keep & ONLY_A) == 0 ? ((keep & ONLY_B) == 0 ? Math.min(a.size(), b.size()) : b.size())
+                    : (keep & ONLY_B) == 0 ? a.size() : a.size() + b.size()];
+            size = merge(a.array, a.from, a.to, b.array, b.from, b.to, a.comparator, keep, out, 0);
+        }
+        return new ArraySet<>(size == out.length ? out : Arrays.copyOf(out, size), 0, size, a.comparator);
+    }
+
+    @SuppressWarnings("serial")
+    private static class Merge<E> extends RecursiveAction {
+        final E[] a;
+        final int aFrom;
+        final int aTo;
+        final E[] b;
+        final int bFrom;
+        final int bTo;
+        final Comparator<? super E> comparator;
+        final int keep;
+        final E[] out;
+        final int offset;
+        Merge<E> left;
+        Merge<E> right;
+        int count;
+
+        Merge(E[] a, int aFrom, int aTo, E[] b, int bFrom, int bTo, Comparator<? super E> comparator, int keep,
+              E[] out, int offset) {
+            this.a = a;
+            this.aFrom = aFrom;
+            this.aTo = aTo;
+            this.b = b;
+            this.bFrom = bFrom;
+            this.bTo = bTo;
+            this.comparator = comparator;
+            this.keep = keep;
+            this.out = out;
+            this.offset = offset;
+        }
+
+        @Override
+        protected void compute() {
+            if (aTo - aFrom + bTo - bFrom <= PARALLEL_THRESHOLD) {
+                count = merge(a, aFrom, aTo, b, bFrom, bTo, comparator, keep, out, offset);
+                return;
+            }
+            // Splits on the middle element of the larger part, elements equal to it go to the right
+            int aSplit;
+            int bSplit;
+            if (aTo - aFrom >= bTo - bFrom) {
+                aSplit = (aFrom + aTo) >>> 1;
+                bSplit = lowerBound(b, bFrom, bTo, a[aSplit], comparator);
+            } else {
+                bSplit = (bFrom + bTo) >>> 1;
+                aSplit = lowerBound(a, aFrom, aTo, b[bSplit], comparator);
+            }
+            left = new Merge<>(a, aFrom, aSplit, b, bFrom, bSplit, comparator, keep, out, offset);
+            right = new Merge<>(a, aSplit, aTo, b, bSplit, bTo, comparator, keep, out,
+                    offset + aSplit - aFrom + bSplit - bFrom);
+            invokeAll(left, right);
+        }
+
+        /**
+         * Moves merged elements of this part to <tt>out</tt> from <tt>size</tt>, which is not after its offset.
+         * Returns the size after them.
+         */
+        int compact(int size) {
+            if (left != null) {
+                return right.compact(left.compact(size));
+            }
+            System.arraycopy(out, offset, out, size, count);
+            return size + count;
+        }
+    }
+
+    /**
+     * Merges <tt>a[aFrom, aTo)</tt> and <tt>b[bFrom, bTo)</tt> to <tt>out</tt> from <tt>offset</tt>, keeping
+     * elements chosen by <tt>keep</tt>. Returns number of elements written.
+     */
+    private static <E> int merge(E[] a, int aFrom, int aTo, E[] b, int bFrom, int bTo, Comparator<? super E> comparator,
+                                 int keep, E[] out, int offset) {
+        if ((long) (aTo - aFrom) * GALLOP_RATIO < bTo - bFrom) {
+            return gallopMerge(a, aFrom, aTo, b, bFrom, bTo, comparator, keep, false, out, offset);
+        }
+        if ((long) (bTo - bFrom) * GALLOP_RATIO < aTo - aFrom) {
+            int swapped = keep & BOTH | (keep & ONLY_A) << 2 | (keep & ONLY_B) >> 2;
+            return gallopMerge(b, bFrom, bTo, a, aFrom, aTo, comparator, swapped, true, out, offset);
+        }
+        int i = aFrom;
+        int j = bFrom;
+        int k = offset;
+        while (i < aTo && j < bTo) {
+            int compared = compare(a[i], b[j], comparator);
+            if (compared < 0) {
+                if ((keep & ONLY_A) != 0) {
+                    out[k++] = a[i];
+                }
+                i++;
+            } else if (compared > 0) {
+                if ((keep & ONLY_B) != 0) {
+                    out[k++] = b[j];
+                }
+                j++;
+            } else {
+                if ((keep & BOTH) != 0) {
+                    out[k++] = a[i];
+                }
+                i++;
+                j++;
+            }
+        }
+        if ((keep & ONLY_A) != 0) {
+            System.arraycopy(a, i, out, k, aTo - i);
+            k += aTo - i;
+        }
+        if ((keep & ONLY_B) != 0) {
+            System.arraycopy(b, j, out, k, bTo - j);
+            k += bTo - j;
+        }
+        return k - offset;
+    }
+
+    /**
+     * Merges a small range <tt>a</tt> and a large range <tt>b</tt>, finding every element of <tt>a</tt> in
+     * <tt>b</tt> by exponential search from the previous one, and copying runs of <tt>b</tt> between them at once.
+     * If <tt>swapped</tt>, elements contained in both are taken from <tt>b</tt>.
+     */
+    private static <E> int gallopMerge(E[] a, int aFrom, int aTo, E[] b, int bFrom, int bTo,
+                                       Comparator<? super E> comparator, int keep, boolean swapped, E[] out, int offset) {
+        int j = bFrom;
+        int k = offset;
+        for (int i = aFrom; i < aTo; i++) {
+            int index = gallop(b, j, bTo, a[i], comparator);
+            int run = (index < 0 ? ~index : index) - j;
+            if ((keep & ONLY_B) != 0) {
+                System.arraycopy(b, j, out, k, run);
+                k += run;
+            }
+            j += run;
+            if (index >= 0) {
+                if ((keep & BOTH) != 0) {
+                    out[k++] = swapped ? b[j] : a[i];
+                }
+                j++;
+            } else if ((keep & ONLY_A) != 0) {
+                out[k++] = a[i];
+            }
+        }
+        if ((keep & ONLY_B) != 0) {
+            System.arraycopy(b, j, out, k, bTo - j);
+            k += bTo - j;
+        }
+        return k - offset;
+    }
+
+    /**
+     * Searches <tt>key</tt> in <tt>array[from, to)</tt> probing exponentially growing distances from <tt>from</tt>,
+     * so it takes <tt>O(log d)</tt> where <tt>d</tt> is the distance to the key. Returns the same as
+     * {@link Arrays#binarySearch(Object[], int, int, Object, Comparator)}.
+     */
+    private static <E> int gallop(E[] array, int from, int to, E key, Comparator<? super E> comparator) {
+        int low = from;
+        int high = from;
+        int step = 1;
+        while (high < to && compare(array[high], key, comparator) < 0) {
+            low = high + 1;
+            high = low + step;
+            step <<= 1;
+        }
+        return Arrays.binarySearch(array, low, Math.min(high + 1, to), key, comparator);
+    }
+
+    private static <E> int lowerBound(E[] array, int from, int to, E key, Comparator<? super E> comparator) {
+        int index = Arrays.binarySearch(array, from, to, key, comparator);
+        return index < 0 ? ~index : index;
+    }
+
     @Override
+    @SuppressWarnings("unchecked")
     public boolean contains(Object o) {
-        return Collections.binarySearch(list, (E) o, comparator) >= 0;
+        return Arrays.binarySearch(array, from, to, (E) o, comparator) >= 0;
+    }
+
+    /**
+     * Checks the elements of <tt>collection</tt> in its iteration order. While they go in increasing order, every
+     * one is searched from the previous one by exponential search, so a sorted batch of <tt>m</tt> keys takes a
+     * single pass of <tt>O(m log(n / m))</tt> with the searches moving forward through memory.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean containsAll(Collection<?> collection) {
+        int position = from;
+        E previous = null;
+        boolean first = true;
+        for (Object o : collection) {
+            E key = (E) o;
+            int index = !first && compare(previous, key, comparator) <= 0
+                    ? gallop(array, position, to, key, comparator)
+                    : Arrays.binarySearch(array, from, to, key, comparator);
+            if (index < 0) {
+                return false;
+            }
+            position = index;
+            previous = key;
+            first = false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns indices of <tt>keys</tt> in this set in their iteration order, as {@link #containsAll(Collection)}
+     * searches them. For a key which is not contained the result is <tt>(-(insertion point) - 1)</tt>.
+     */
+    @SuppressWarnings("unchecked")
+    public int[] indexOfAll(Collection<? extends E> keys) {
+        E[] probes = (E[]) keys.toArray();
+        int[] indices = new int[probes.length];
+        indexOfAll(probes, 0, probes.length, indices);
+        return indices;
+    }
+
+    /**
+     * Same as {@link #indexOfAll(Collection)}, but a large batch is split into parts searched in parallel
+     * in the {@link ForkJoinPool#commonPool() common pool}.
+     */
+    @SuppressWarnings("unchecked")
+    public int[] parallelIndexOfAll(Collection<? extends E> keys) {
+        E[] probes = (E[]) keys.toArray();
+        int[] indices = new int[probes.length];
+        ForkJoinPool.commonPool().invoke(new IndexOfAll(probes, 0, probes.length, indices));
+        return indices;
     }
 
-    private int indexOfElement(E e) {
-        int index = Collections.binarySearch(list, e, comparator);
+    private void indexOfAll(E[] probes, int start, int end, int[] indices) {
+        int position = from;
+        for (int i = start; i < end; i++) {
+            int index = i > start && compare(probes[i - 1], probes[i], comparator) <= 0
+                    ? gallop(array, position, to, probes[i], comparator)
+                    : Arrays.binarySearch(array, from, to, probes[i], comparator);
+            position = index < 0 ? ~index : index;
+            indices[i] = index < 0 ? index + from : index - from;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class IndexOfAll extends RecursiveAction {
+        final E[] probes;
+        final int start;
+        final int end;
+        final int[] indices;
+
+        IndexOfAll(E[] probes, int start, int end, int[] indices) {
+            this.probes = probes;
+            this.start = start;
+            this.end = end;
+            this.indices = indices;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= PARALLEL_KEYS_THRESHOLD) {
+                indexOfAll(probes, start, end, indices);
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new IndexOfAll(probes, start, middle, indices), new IndexOfAll(probes, middle, end, indices));
+            }
+        }
+    }
+
+    /**
+     * Returns number of elements of this set less than <tt>e</tt>, which is the index of <tt>e</tt> if it is contained.
+     */
+    public int rank(E e) {
+        return ceilingIndex(e) - from;
+    }
+
+    /**
+     * Returns element with <tt>k</tt> elements less than it, so that <tt>select(rank(e))</tt> is <tt>e</tt>.
+     */
+    public E select(int k) {
+        return get(k);
+    }
+
+    public E get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+        return array[from + index];
+    }
+
+    /**
+     * View of elements with indices from <tt>fromIndex</tt> inclusive to <tt>toIndex</tt> exclusive.
+     */
+    ArraySet<E> window(int fromIndex, int toIndex) {
+        return new ArraySet<>(array, from + fromIndex, from + toIndex, comparator);
+    }
+
+    /**
+     * Returns number of elements from <tt>fromElement</tt> inclusive to <tt>toElement</tt> exclusive,
+     * same as the size of {@link #subSet(Object, Object)}.
+     */
+    public int countInRange(E fromElement, E toElement) {
+        if (compare(fromElement, toElement, comparator) > 0) {
+            throw new IllegalArgumentException("fromElement > toElement");
+        }
+        return ceilingIndex(toElement) - ceilingIndex(fromElement);
+    }
+
+    // Navigation by index in the array: the element at the returned index, if it is in [from, to)
+
+    private int lowerIndex(E e) {
+        int index = Arrays.binarySearch(array, from, to, e, comparator);
+        return index < 0 ? ~index - 1 : index - 1;
+    }
+
+    private int floorIndex(E e) {
+        int index = Arrays.binarySearch(array, from, to, e, comparator);
+        return index < 0 ? ~index - 1 : index;
+    }
+
+    private int ceilingIndex(E e) {
+        int index = Arrays.binarySearch(array, from, to, e, comparator);
         return index < 0 ? ~index : index;
     }
 
+    private int higherIndex(E e) {
+        int index = Arrays.binarySearch(array, from, to, e, comparator);
+        return index < 0 ? ~index : index + 1;
+    }
+
+    private E elementAt(int index) {
+        return from <= index && index < to ? array[index] : null;
+    }
+
     @Override
     public Iterator<E> iterator() {
-        return Collections.unmodifiableList(list).iterator();
+        return new Iterator<E>() {
+            private int next = from;
+
+            @Override
+            public boolean hasNext() {
+                return next < to;
+            }
+
+            @Override
+            public E next() {
+                if (next >= to) {
+                    throw new NoSuchElementException();
+                }
+                return array[next++];
+            }
+        };
+    }
+
+    @Override
+    public Iterator<E> descendingIterator() {
+        return new Iterator<E>() {
+            private int next = to - 1;
+
+            @Override
+            public boolean hasNext() {
+                return next >= from;
+            }
+
+            @Override
+            public E next() {
+                if (next < from) {
+                    throw new NoSuchElementException();
+                }
+                return array[next--];
+            }
+        };
+    }
+
+    /**
+     * Returns a spliterator which splits the window of the array in halves in <tt>O(1)</tt>.
+     */
+    @Override
+    public Spliterator<E> spliterator() {
+        return new ArraySpliterator<>(array, from, to, comparator);
+    }
+
+    private static class ArraySpliterator<E> implements Spliterator<E> {
+        private final E[] array;
+        private int index;
+        private final int fence;
+        private final Comparator<? super E> comparator;
+
+        ArraySpliterator(E[] array, int index, int fence, Comparator<? super E> comparator) {
+            this.array = array;
+            this.index = index;
+            this.fence = fence;
+            this.comparator = comparator;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super E> action) {
+            if (index >= fence) {
+                return false;
+            }
+            action.accept(array[index++]);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super E> action) {
+            for (int i = index; i < fence; i++) {
+                action.accept(array[i]);
+            }
+            index = fence;
+        }
+
+        @Override
+        public Spliterator<E> trySplit() {
+            int middle = (index + fence) >>> 1;
+            if (middle <= index) {
+                return null;
+            }
+            Spliterator<E> prefix = new ArraySpliterator<>(array, index, middle, comparator);
+            index = middle;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return fence - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | DISTINCT | SORTED | SIZED | SUBSIZED | IMMUTABLE;
+        }
+
+        /**
+         * Returns comparator of the set, <tt>null</tt> for natural order as the contract of {@link Spliterator} says.
+         */
+        @Override
+        public Comparator<? super E> getComparator() {
+            return comparator;
+        }
+    }
+
+    @Override
+    public NavigableSet<E> descendingSet() {
+        return new DescendingSet<>(this);
     }
 
     @Override
     public int size() {
-        return list == null ? 0 : list.size();
+        return to - from;
+    }
+
+    @Override
+    public Object[] toArray() {
+        return Arrays.copyOfRange(array, from, to, Object[].class);
     }
 
     @Override
@@ -61,41 +610,86 @@ public class ArraySet<E> extends AbstractSet<E> implements SortedSet<E> {
     }
 
     @Override
-    public SortedSet<E> subSet(E fromElement, E toElement) {
-        int fromIndex = indexOfElement(fromElement);
-        int toIndex = indexOfElement(toElement);
-        if (fromIndex > toIndex) {
-            fromIndex = toIndex;
+    public E lower(E e) {
+        return elementAt(lowerIndex(e));
+    }
+
+    @Override
+    public E floor(E e) {
+        return elementAt(floorIndex(e));
+    }
+
+    @Override
+    public E ceiling(E e) {
+        return elementAt(ceilingIndex(e));
+    }
+
+    @Override
+    public E higher(E e) {
+        return elementAt(higherIndex(e));
+    }
+
+    @Override
+    public E pollFirst() {
+        throw new UnsupportedOperationException("ArraySet is immutable");
+    }
+
+    @Override
+    public E pollLast() {
+        throw new UnsupportedOperationException("ArraySet is immutable");
+    }
+
+    @Override
+    public ArraySet<E> subSet(E fromElement, boolean fromInclusive, E toElement, boolean toInclusive) {
+        if (compare(fromElement, toElement, comparator) > 0) {
+            throw new IllegalArgumentException("fromElement > toElement");
         }
-        return new ArraySet<E>(list.subList(fromIndex, toIndex), comparator, true);
+        int fromIndex = fromInclusive ? ceilingIndex(fromElement) : higherIndex(fromElement);
+        int toIndex = toInclusive ? floorIndex(toElement) + 1 : lowerIndex(toElement) + 1;
+        return new ArraySet<>(array, fromIndex, Math.max(fromIndex, toIndex), comparator);
+    }
+
+    @Override
+    public ArraySet<E> headSet(E toElement, boolean inclusive) {
+        int toIndex = inclusive ? floorIndex(toElement) + 1 : lowerIndex(toElement) + 1;
+        return new ArraySet<>(array, from, toIndex, comparator);
+    }
+
+    @Override
+    public ArraySet<E> tailSet(E fromElement, boolean inclusive) {
+        int fromIndex = inclusive ? ceilingIndex(fromElement) : higherIndex(fromElement);
+        return new ArraySet<>(array, fromIndex, to, comparator);
+    }
+
+    @Override
+    public ArraySet<E> subSet(E fromElement, E toElement) {
+        return subSet(fromElement, true, toElement, false);
     }
 
     @Override
-    public SortedSet<E> headSet(E toElement) {
-        int toIndex = indexOfElement(toElement);
-        return new ArraySet<E>(list.subList(0, toIndex), comparator, true);
+    public ArraySet<E> headSet(E toElement) {
+        return headSet(toElement, false);
     }
 
     @Override
-    public SortedSet<E> tailSet(E fromElement) {
-        int fromIndex = indexOfElement(fromElement);
-        return new ArraySet<E>(list.subList(fromIndex, list.size()), comparator, true);
+    public ArraySet<E> tailSet(E fromElement) {
+        return tailSet(fromElement, true);
     }
 
     @Override
     public E first() {
-        if (list.isEmpty()) {
+        if (from == to) {
             throw new NoSuchElementException("Could not get first element: sorted set is empty");
         }
-        return list.get(0);
+        return array[from];
     }
 
     @Override
     public E last() {
-        if (list.isEmpty()) {
+        if (from == to) {
             throw new NoSuchElementException("Could not get last element: sorted set is empty");
         }
-        return list.get(list.size() - 1);
+        return array[to - 1];
     }
 
 }
@@ -0,0 +1,115 @@
+package ru.ifmo.ctddev.maltsev.arrayset;
+
+import java.util.*;
+
+/**
+ * Reverse-order view of a {@link NavigableSet}. Every method delegates to the mirrored method of the set.
+ */
+class DescendingSet<E> extends AbstractSet<E> implements NavigableSet<E> {
+
+    private final NavigableSet<E> set;
+
+    DescendingSet(NavigableSet<E> set) {
+        this.set = set;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return set.contains(o);
+    }
+
+    @Override
+    public int size() {
+        return set.size();
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return set.descendingIterator();
+    }
+
+    @Override
+    public Iterator<E> descendingIterator() {
+        return set.iterator();
+    }
+
+    @Override
+    public NavigableSet<E> descendingSet() {
+        return set;
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return Collections.reverseOrder(set.comparator());
+    }
+
+    @Override
+    public E first() {
+        return set.last();
+    }
+
+    @Override
+    public E last() {
+        return set.first();
+    }
+
+    @Override
+    public E lower(E e) {
+        return set.higher(e);
+    }
+
+    @Override
+    public E floor(E e) {
+        return set.ceiling(e);
+    }
+
+    @Override
+    public E ceiling(E e) {
+        return set.floor(e);
+    }
+
+    @Override
+    public E higher(E e) {
+        return set.lower(e);
+    }
+
+    @Override
+    public E pollFirst() {
+        return set.pollLast();
+    }
+
+    @Override
+    public E pollLast() {
+        return set.pollFirst();
+    }
+
+    @Override
+    public NavigableSet<E> subSet(E fromElement, boolean fromInclusive, E toElement, boolean toInclusive) {
+        return new DescendingSet<>(set.subSet(toElement, toInclusive, fromElement, fromInclusive));
+    }
+
+    @Override
+    public NavigableSet<E> headSet(E toElement, boolean inclusive) {
+        return new DescendingSet<>(set.tailSet(toElement, inclusive));
+    }
+
+    @Override
+    public NavigableSet<E> tailSet(E fromElement, boolean inclusive) {
+        return new DescendingSet<>(set.headSet(fromElement, inclusive));
+    }
+
+    @Override
+    public SortedSet<E> subSet(E fromElement, E toElement) {
+        return subSet(fromElement, true, toElement, false);
+    }
+
+    @Override
+    public SortedSet<E> headSet(E toElement) {
+        return headSet(toElement, false);
+    }
+
+    @Override
+    public SortedSet<E> tailSet(E fromElement) {
+        return tailSet(fromElement, true);
+    }
+}
@@ -0,0 +1,365 @@
+package ru.ifmo.ctddev.maltsev.arrayset;
+
+import java.util.*;
+
+/**
+ * Immutable sorted set of <tt>long</tt>s stored in a primitive array, in natural order.
+ * <p>
+ * Views share the array of the set and are windows <tt>[from, to)</tt> of it. Methods taking and
+ * returning <tt>long</tt>, such as {@link #contains(long)}, {@link #firstLong()} and {@link #getLong(int)},
+ * do not box.
+ * <p>
+ * Sets which are searched much can be given an index in Eytzinger order with {@link #withEytzingerIndex()}.
+ */
+public class LongArraySet extends AbstractSet<Long> implements NavigableSet<Long> {
+
+    private final long[] array;
+    private final int from;
+    private final int to;
+    // Search tree in Eytzinger order over a range of the array and positions of its elements, or null
+    private final long[] tree;
+    private final int[] positions;
+
+    public LongArraySet(long... elements) {
+        long[] array = elements.clone();
+        Arrays.sort(array);
+        int size = 0;
+        for (int i = 0; i < array.length; i++) {
+            if (size == 0 || array[size - 1] != array[i]) {
+                array[size++] = array[i];
+            }
+        }
+        this.array = size == array.length ? array : Arrays.copyOf(array, size);
+        this.from = 0;
+        this.to = size;
+        this.tree = null;
+        this.positions = null;
+    }
+
+    public LongArraySet(Collection<Long> collection) {
+        this(toArray(collection));
+    }
+
+    private LongArraySet(long[] array, int from, int to, long[] tree, int[] positions) {
+        this.array = array;
+        this.from = from;
+        this.to = to;
+        this.tree = tree;
+        this.positions = positions;
+    }
+
+    private static long[] toArray(Collection<Long> collection) {
+        if (collection instanceof LongArraySet) {
+            return ((LongArraySet) collection).toLongArray();
+        }
+        long[] array = new long[collection.size()];
+        int size = 0;
+        for (long element : collection) {
+            array[size++] = element;
+        }
+        return array;
+    }
+
+    /**
+     * Returns the same set searched through a copy of its elements in Eytzinger (breadth-first) order:
+     * the root of the implicit binary search tree is at <tt>1</tt> and the children of <tt>k</tt> are at
+     * <tt>2k</tt> and <tt>2k + 1</tt>. The first levels of every search share a few cache lines and the
+     * next probe does not depend on a branch, so searches are faster while the set fits in processor caches.
+     * Larger sets are searched about as fast as with binary search, since the next levels can not be prefetched.
+     * The tree takes one more element and an <tt>int</tt> position per element, {@link #contains(long)} does not
+     * read positions.
+     * Views of the returned set use the same tree, iteration still goes over the sorted array.
+     */
+    public LongArraySet withEytzingerIndex() {
+        long[] tree = new long[size() + 1];
+        int[] positions = new int[size() + 1];
+        fill(tree, positions, from, 1);
+        return new LongArraySet(array, from, to, tree, positions);
+    }
+
+    /**
+     * Fills the subtree rooted at <tt>k</tt> in order, starting from <tt>array[position]</tt>.
+     * Returns position of the next element.
+     */
+    private int fill(long[] tree, int[] positions, int position, int k) {
+        if (k < tree.length) {
+            position = fill(tree, positions, position, 2 * k);
+            tree[k] = array[position];
+            positions[k] = position++;
+            position = fill(tree, positions, position, 2 * k + 1);
+        }
+        return position;
+    }
+
+    /**
+     * Searches <tt>key</tt> in this set, returns position in the array as {@link Arrays#binarySearch(long[], int, int, long)}.
+     */
+    private int search(long key) {
+        if (tree == null) {
+            return Arrays.binarySearch(array, from, to, key);
+        }
+        // The tree may cover a wider range than this view
+        if (from == to || key > array[to - 1]) {
+            return ~to;
+        }
+        if (key < array[from]) {
+            return ~from;
+        }
+        int k = lowerBoundNode(key);
+        return tree[k] == key ? positions[k] : ~positions[k];
+    }
+
+    /**
+     * Returns node of the tree holding the first element which is not less than <tt>key</tt>, or <tt>0</tt>.
+     */
+    private int lowerBoundNode(long key) {
+        int k = 1;
+        while (k < tree.length) {
+            k = 2 * k + (tree[k] < key ? 1 : 0);
+        }
+        // Leaving the tree, the search turned right after the lower bound and only left since then
+        return k >>> Integer.numberOfTrailingZeros(~k) + 1;
+    }
+
+    /**
+     * Returns index of <tt>key</tt> in this set if it is contained, otherwise <tt>(-(insertion point) - 1)</tt>,
+     * as {@link Arrays#binarySearch(long[], long)} does.
+     */
+    public int indexOf(long key) {
+        int index = search(key);
+        return index < 0 ? index + from : index - from;
+    }
+
+    public boolean contains(long key) {
+        if (tree == null) {
+            return Arrays.binarySearch(array, from, to, key) >= 0;
+        }
+        // Unlike search, does not need the position
+        return from < to && array[from] <= key && key <= array[to - 1] && tree[lowerBoundNode(key)] == key;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Long && contains((long) (Long) o);
+    }
+
+    /**
+     * Returns number of elements of this set less than <tt>key</tt>. The element with rank <tt>k</tt> is
+     * {@link #getLong(int) getLong(k)}.
+     */
+    public int rank(long key) {
+        return ceilingIndex(key) - from;
+    }
+
+    /**
+     * Returns number of elements from <tt>fromKey</tt> inclusive to <tt>toKey</tt> exclusive.
+     */
+    public int countInRange(long fromKey, long toKey) {
+        if (fromKey > toKey) {
+            throw new IllegalArgumentException("fromKey > toKey");
+        }
+        return ceilingIndex(toKey) - ceilingIndex(fromKey);
+    }
+
+    public long getLong(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+        return array[from + index];
+    }
+
+    public long firstLong() {
+        if (from == to) {
+            throw new NoSuchElementException("Could not get first element: sorted set is empty");
+        }
+        return array[from];
+    }
+
+    public long lastLong() {
+        if (from == to) {
+            throw new NoSuchElementException("Could not get last element: sorted set is empty");
+        }
+        return array[to - 1];
+    }
+
+    public long[] toLongArray() {
+        return Arrays.copyOfRange(array, from, to);
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong iterator() {
+        return new PrimitiveIterator.OfLong() {
+            private int next = from;
+
+            @Override
+            public boolean hasNext() {
+                return next < to;
+            }
+
+            @Override
+            public long nextLong() {
+                if (next >= to) {
+                    throw new NoSuchElementException();
+                }
+                return array[next++];
+            }
+        };
+    }
+
+    /**
+     * Returns a spliterator which splits the window of the array in halves, for {@link java.util.stream.LongStream}s:
+     * <tt>StreamSupport.longStream(set.spliterator(), true)</tt>.
+     */
+    @Override
+    public Spliterator.OfLong spliterator() {
+        return Spliterators.spliterator(array, from, to,
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.SORTED | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong descendingIterator() {
+        return new PrimitiveIterator.OfLong() {
+            private int next = to - 1;
+
+            @Override
+            public boolean hasNext() {
+                return next >= from;
+            }
+
+            @Override
+            public long nextLong() {
+                if (next < from) {
+                    throw new NoSuchElementException();
+                }
+                return array[next--];
+            }
+        };
+    }
+
+    @Override
+    public NavigableSet<Long> descendingSet() {
+        return new DescendingSet<>(this);
+    }
+
+    @Override
+    public Comparator<? super Long> comparator() {
+        return null;
+    }
+
+    @Override
+    public Long first() {
+        return firstLong();
+    }
+
+    @Override
+    public Long last() {
+        return lastLong();
+    }
+
+    // Navigation by index in the array: the element at the returned index, if it is in [from, to)
+
+    private int lowerIndex(long key) {
+        int index = search(key);
+        return index < 0 ? ~index - 1 : index - 1;
+    }
+
+    private int floorIndex(long key) {
+        int index = search(key);
+        return index < 0 ? ~index - 1 : index;
+    }
+
+    private int ceilingIndex(long key) {
+        int index = search(key);
+        return index < 0 ? ~index : index;
+    }
+
+    private int higherIndex(long key) {
+        int index = search(key);
+        return index < 0 ? ~index : index + 1;
+    }
+
+    private Long elementAt(int index) {
+        return from <= index && index < to ? array[index] : null;
+    }
+
+    @Override
+    public Long lower(Long e) {
+        return elementAt(lowerIndex(e));
+    }
+
+    @Override
+    public Long floor(Long e) {
+        return elementAt(floorIndex(e));
+    }
+
+    @Override
+    public Long ceiling(Long e) {
+        return elementAt(ceilingIndex(e));
+    }
+
+    @Override
+    public Long higher(Long e) {
+        return elementAt(higherIndex(e));
+    }
+
+    @Override
+    public Long pollFirst() {
+        throw new UnsupportedOperationException("LongArraySet is immutable");
+    }
+
+    @Override
+    public Long pollLast() {
+        throw new UnsupportedOperationException("LongArraySet is immutable");
+    }
+
+    @Override
+    public LongArraySet subSet(Long fromElement, boolean fromInclusive, Long toElement, boolean toInclusive) {
+        if (fromElement > toElement) {
+            throw new IllegalArgumentException("fromElement > toElement");
+        }
+        int fromIndex = fromInclusive ? ceilingIndex(fromElement) : higherIndex(fromElement);
+        int toIndex = toInclusive ? floorIndex(toElement) + 1 : lowerIndex(toElement) + 1;
+        return new LongArraySet(array, fromIndex, Math.max(fromIndex, toIndex), tree, positions);
+    }
+
+    @Override
+    public LongArraySet headSet(Long toElement, boolean inclusive) {
+        int toIndex = inclusive ? floorIndex(toElement) + 1 : lowerIndex(toElement) + 1;
+        return new LongArraySet(array, from, toIndex, tree, positions);
+    }
+
+    @Override
+    public LongArraySet tailSet(Long fromElement, boolean inclusive) {
+        int fromIndex = inclusive ? ceilingIndex(fromElement) : higherIndex(fromElement);
+        return new LongArraySet(array, fromIndex, to, tree, positions);
+    }
+
+    @Override
+    public LongArraySet subSet(Long fromElement, Long toElement) {
+        return subSet(fromElement, true, toElement, false);
+    }
+
+    @Override
+    public LongArraySet headSet(Long toElement) {
+        return headSet(toElement, false);
+    }
+
+    @Override
+    public LongArraySet tailSet(Long fromElement) {
+        return tailSet(fromElement, true);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash += Long.hashCode(array[i]);
+        }
+        return hash;
+    }
+}
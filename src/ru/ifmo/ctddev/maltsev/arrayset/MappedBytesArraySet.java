@@ -0,0 +1,276 @@
+package ru.ifmo.ctddev.maltsev.arrayset;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Immutable sorted set of fixed-width <tt>byte[]</tt> keys, ordered by {@link #KEY_ORDER}, kept in a file
+ * mapped to memory like {@link MappedLongArraySet}.
+ * <p>
+ * As in a {@link TreeSet} with a comparator, keys are compared by their contents, not by
+ * {@link Object#equals(Object)}. Every element returned is a new copy of the key.
+ * So sets are equal if they have keys with the same contents, and {@link #hashCode()} is the sum of
+ * {@link Arrays#hashCode(byte[])} of the keys.
+ */
+public class MappedBytesArraySet extends AbstractSet<byte[]> implements NavigableSet<byte[]> {
+
+    /**
+     * Lexicographic order of unsigned bytes, a shorter key goes before the longer keys it is a prefix of.
+     */
+    public static final Comparator<byte[]> KEY_ORDER = MappedKeys::compareUnsigned;
+
+    private final MappedKeys keys;
+    private final long from;
+    private final long to;
+
+    private MappedBytesArraySet(MappedKeys keys, long from, long to) {
+        this.keys = keys;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Maps a set of keys <tt>width</tt> bytes long, written by {@link #write(Path, int, Iterator)}.
+     */
+    public static MappedBytesArraySet open(Path file, int width) throws IOException {
+        MappedKeys keys = MappedKeys.open(file, width);
+        return new MappedBytesArraySet(keys, 0, keys.count);
+    }
+
+    /**
+     * Writes keys <tt>width</tt> bytes long in strictly increasing {@link #KEY_ORDER} to <tt>file</tt>.
+     * The file is replaced only when all keys are written.
+     *
+     * @throws IllegalArgumentException if keys are not in increasing order or have other width
+     */
+    public static void write(Path file, int width, Iterator<byte[]> keys) throws IOException {
+        try (MappedKeys.Writer writer = new MappedKeys.Writer(file, width)) {
+            while (keys.hasNext()) {
+                writer.add(keys.next());
+            }
+            writer.commit();
+        }
+    }
+
+    public int width() {
+        return keys.width;
+    }
+
+    /**
+     * Searches <tt>key</tt> in this set, returns its position in the file, or <tt>(-(insertion point) - 1)</tt>.
+     */
+    private long search(byte[] key) {
+        long low = from;
+        long high = to - 1;
+        while (low <= high) {
+            long middle = (low + high) >>> 1;
+            int compared = keys.compare(middle, key);
+            if (compared < 0) {
+                low = middle + 1;
+            } else if (compared > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Returns index of <tt>key</tt> in this set if it is contained, otherwise <tt>(-(insertion point) - 1)</tt>.
+     */
+    public long indexOf(byte[] key) {
+        long index = search(key);
+        return index < 0 ? index + from : index - from;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof byte[] && search((byte[]) o) >= 0;
+    }
+
+    public byte[] get(long index) {
+        if (index < 0 || index >= longSize()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + longSize());
+        }
+        return keys.get(from + index);
+    }
+
+    public long longSize() {
+        return to - from;
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(longSize(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Iterator<byte[]> iterator() {
+        return new Iterator<byte[]>() {
+            private long next = from;
+
+            @Override
+            public boolean hasNext() {
+                return next < to;
+            }
+
+            @Override
+            public byte[] next() {
+                if (next >= to) {
+                    throw new NoSuchElementException();
+                }
+                return keys.get(next++);
+            }
+        };
+    }
+
+    @Override
+    public Iterator<byte[]> descendingIterator() {
+        return new Iterator<byte[]>() {
+            private long next = to - 1;
+
+            @Override
+            public boolean hasNext() {
+                return next >= from;
+            }
+
+            @Override
+            public byte[] next() {
+                if (next < from) {
+                    throw new NoSuchElementException();
+                }
+                return keys.get(next--);
+            }
+        };
+    }
+
+    @Override
+    public NavigableSet<byte[]> descendingSet() {
+        return new DescendingSet<>(this);
+    }
+
+    @Override
+    public Comparator<? super byte[]> comparator() {
+        return KEY_ORDER;
+    }
+
+    @Override
+    public byte[] first() {
+        if (from == to) {
+            throw new NoSuchElementException("Could not get first element: sorted set is empty");
+        }
+        return keys.get(from);
+    }
+
+    @Override
+    public byte[] last() {
+        if (from == to) {
+            throw new NoSuchElementException("Could not get last element: sorted set is empty");
+        }
+        return keys.get(to - 1);
+    }
+
+    // Navigation by position in the file: the key at the returned position, if it is in [from, to)
+
+    private long lowerIndex(byte[] key) {
+        long index = search(key);
+        return index < 0 ? ~index - 1 : index - 1;
+    }
+
+    private long floorIndex(byte[] key) {
+        long index = search(key);
+        return index < 0 ? ~index - 1 : index;
+    }
+
+    private long ceilingIndex(byte[] key) {
+        long index = search(key);
+        return index < 0 ? ~index : index;
+    }
+
+    private long higherIndex(byte[] key) {
+        long index = search(key);
+        return index < 0 ? ~index : index + 1;
+    }
+
+    private byte[] elementAt(long index) {
+        return from <= index && index < to ? keys.get(index) : null;
+    }
+
+    @Override
+    public byte[] lower(byte[] e) {
+        return elementAt(lowerIndex(e));
+    }
+
+    @Override
+    public byte[] floor(byte[] e) {
+        return elementAt(floorIndex(e));
+    }
+
+    @Override
+    public byte[] ceiling(byte[] e) {
+        return elementAt(ceilingIndex(e));
+    }
+
+    @Override
+    public byte[] higher(byte[] e) {
+        return elementAt(higherIndex(e));
+    }
+
+    @Override
+    public byte[] pollFirst() {
+        throw new UnsupportedOperationException("MappedBytesArraySet is immutable");
+    }
+
+    @Override
+    public byte[] pollLast() {
+        throw new UnsupportedOperationException("MappedBytesArraySet is immutable");
+    }
+
+    @Override
+    public MappedBytesArraySet subSet(byte[] fromElement, boolean fromInclusive, byte[] toElement, boolean toInclusive) {
+        if (KEY_ORDER.compare(fromElement, toElement) > 0) {
+            throw new IllegalArgumentException("fromElement > toElement");
+        }
+        long fromIndex = fromInclusive ? ceilingIndex(fromElement) : higherIndex(fromElement);
+        long toIndex = toInclusive ? floorIndex(toElement) + 1 : lowerIndex(toElement) + 1;
+        return new MappedBytesArraySet(keys, fromIndex, Math.max(fromIndex, toIndex));
+    }
+
+    @Override
+    public MappedBytesArraySet headSet(byte[] toElement, boolean inclusive) {
+        long toIndex = inclusive ? floorIndex(toElement) + 1 : lowerIndex(toElement) + 1;
+        return new MappedBytesArraySet(keys, from, toIndex);
+    }
+
+    @Override
+    public MappedBytesArraySet tailSet(byte[] fromElement, boolean inclusive) {
+        long fromIndex = inclusive ? ceilingIndex(fromElement) : higherIndex(fromElement);
+        return new MappedBytesArraySet(keys, fromIndex, to);
+    }
+
+    @Override
+    public MappedBytesArraySet subSet(byte[] fromElement, byte[] toElement) {
+        return subSet(fromElement, true, toElement, false);
+    }
+
+    @Override
+    public MappedBytesArraySet headSet(byte[] toElement) {
+        return headSet(toElement, false);
+    }
+
+    @Override
+    public MappedBytesArraySet tailSet(byte[] fromElement) {
+        return tailSet(fromElement, true);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (long i = from; i < to; i++) {
+            hash += keys.hashCode(i);
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,236 @@
+package ru.ifmo.ctddev.maltsev.arrayset;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Sorted fixed-width keys in a file mapped to memory read-only, as used by {@link MappedLongArraySet}
+ * and {@link MappedBytesArraySet}. All numbers are big-endian:
+ * <pre>
+ *     header: int magic, int version, int width, int 0, long count
+ *     keys:   byte[count][width], in increasing order
+ * </pre>
+ * Keys of {@link MappedLongArraySet} are <tt>long</tt>s ordered as signed numbers, other keys are ordered
+ * as unsigned bytes.
+ * The file is mapped in segments of at most 1 GiB, each holding a power of two keys, so a key is found
+ * by a shift and a mask. The mapping stays valid after the file is closed and is shared with other
+ * processes mapping the same file.
+ */
+class MappedKeys {
+
+    static final int MAGIC = 0x4d534554;
+    static final int VERSION = 1;
+    static final int HEADER = 24;
+    private static final int SEGMENT_BITS = 30;
+
+    final int width;
+    final long count;
+    private final int shift;
+    private final long mask;
+    private final MappedByteBuffer[] segments;
+
+    private MappedKeys(FileChannel channel, int width, long count) throws IOException {
+        this.width = width;
+        this.count = count;
+        this.shift = SEGMENT_BITS - (32 - Integer.numberOfLeadingZeros(width - 1));
+        this.mask = (1L << shift) - 1;
+        segments = new MappedByteBuffer[(int) ((count + mask) >>> shift)];
+        for (int i = 0; i < segments.length; i++) {
+            long first = (long) i << shift;
+            long size = Math.min(mask + 1, count - first) * width;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER + first * width, size);
+        }
+    }
+
+    /**
+     * Maps keys of <tt>file</tt>, which must have keys <tt>width</tt> bytes long.
+     */
+    static MappedKeys open(Path file, int width) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new IOException("Not a mapped set: " + file);
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a mapped set: " + file);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version of mapped set: " + version);
+            }
+            int fileWidth = header.getInt();
+            header.getInt();
+            long count = header.getLong();
+            if (fileWidth != width) {
+                throw new IOException("Mapped set has keys of " + fileWidth + " bytes, expected " + width);
+            }
+            if (count < 0 || HEADER + count * width > channel.size()) {
+                throw new IOException("Damaged mapped set: " + file);
+            }
+            return new MappedKeys(channel, width, count);
+        }
+    }
+
+    long getLong(long index) {
+        return segments[(int) (index >>> shift)].getLong((int) (index & mask) * width);
+    }
+
+    byte[] get(long index) {
+        byte[] key = new byte[width];
+        ByteBuffer segment = segments[(int) (index >>> shift)];
+        int offset = (int) (index & mask) * width;
+        for (int i = 0; i < width; i++) {
+            key[i] = segment.get(offset + i);
+        }
+        return key;
+    }
+
+    /**
+     * Returns {@link java.util.Arrays#hashCode(byte[])} of key at <tt>index</tt>.
+     */
+    int hashCode(long index) {
+        ByteBuffer segment = segments[(int) (index >>> shift)];
+        int offset = (int) (index & mask) * width;
+        int hash = 1;
+        for (int i = 0; i < width; i++) {
+            hash = 31 * hash + segment.get(offset + i);
+        }
+        return hash;
+    }
+
+    /**
+     * Compares key at <tt>index</tt> with <tt>key</tt> as {@link MappedBytesArraySet#KEY_ORDER} does.
+     */
+    int compare(long index, byte[] key) {
+        ByteBuffer segment = segments[(int) (index >>> shift)];
+        int offset = (int) (index & mask) * width;
+        int length = Math.min(width, key.length);
+        for (int i = 0; i < length; i++) {
+            int compared = Integer.compare(segment.get(offset + i) & 0xff, key[i] & 0xff);
+            if (compared != 0) {
+                return compared;
+            }
+        }
+        return Integer.compare(width, key.length);
+    }
+
+    /**
+     * Writes keys to a file in increasing order. The keys go to a temporary file, which replaces the file
+     * only on {@link #commit()}, so a failed write leaves no truncated set behind.
+     */
+    static class Writer implements Closeable {
+        private final Path file;
+        private final Path temp;
+        private final FileChannel channel;
+        private final int width;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+        private final byte[] previous;
+        private long previousLong;
+        private long count;
+
+        Writer(Path file, int width) throws IOException {
+            if (width <= 0 || width > 1 << 16) {
+                throw new IllegalArgumentException("Keys must be from 1 to 65536 bytes long");
+            }
+            Path parent = file.toAbsolutePath().getParent();
+            this.file = file;
+            this.temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+            try {
+                this.channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            this.width = width;
+            this.previous = new byte[width];
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(0).putLong(0);
+        }
+
+        /**
+         * Adds a key of a writer of 8-byte keys, which are ordered as signed <tt>long</tt>s.
+         */
+        void add(long key) throws IOException {
+            if (count > 0 && key <= previousLong) {
+                throw new IllegalArgumentException("Keys are not in increasing order");
+            }
+            previousLong = key;
+            if (buffer.remaining() < 8) {
+                flush();
+            }
+            buffer.putLong(key);
+            count++;
+        }
+
+        void add(byte[] key) throws IOException {
+            if (key.length != width) {
+                throw new IllegalArgumentException("Key of " + key.length + " bytes, expected " + width);
+            }
+            if (count > 0 && compareUnsigned(previous, key) >= 0) {
+                throw new IllegalArgumentException("Keys are not in increasing order");
+            }
+            System.arraycopy(key, 0, previous, 0, width);
+            if (buffer.remaining() < width) {
+                flush();
+            }
+            buffer.put(key);
+            count++;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        /**
+         * Writes the count of keys and moves the keys to the file.
+         */
+        void commit() throws IOException {
+            try {
+                flush();
+                buffer.putLong(count).flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, 16 + buffer.position());
+                }
+            } finally {
+                channel.close();
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        /**
+         * Deletes the temporary file unless the keys were committed.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                channel.close();
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    static int compareUnsigned(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int compared = Integer.compare(a[i] & 0xff, b[i] & 0xff);
+            if (compared != 0) {
+                return compared;
+            }
+        }
+        return Integer.compare(a.length, b.length);
+    }
+}
@@ -0,0 +1,279 @@
+package ru.ifmo.ctddev.maltsev.arrayset;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Immutable sorted set of <tt>long</tt>s, in natural order, kept in a file mapped to memory.
+ * <p>
+ * The file is written once by {@link #write(Path, PrimitiveIterator.OfLong)} and then {@link #open(Path)}
+ * maps it without reading the keys: they are searched in place in the page cache, which is shared by all
+ * processes opening the file, and take no heap. Sets may hold more than {@link Integer#MAX_VALUE} keys,
+ * then {@link #size()} is <tt>Integer.MAX_VALUE</tt> and {@link #longSize()} is the exact size.
+ * Views are windows of the same mapping, like views of {@link LongArraySet}.
+ */
+public class MappedLongArraySet extends AbstractSet<Long> implements NavigableSet<Long> {
+
+    private final MappedKeys keys;
+    private final long from;
+    private final long to;
+
+    private MappedLongArraySet(MappedKeys keys, long from, long to) {
+        this.keys = keys;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Maps a set written by {@link #write(Path, PrimitiveIterator.OfLong)}.
+     */
+    public static MappedLongArraySet open(Path file) throws IOException {
+        MappedKeys keys = MappedKeys.open(file, 8);
+        return new MappedLongArraySet(keys, 0, keys.count);
+    }
+
+    /**
+     * Writes keys in strictly increasing order to <tt>file</tt>, such as keys of a {@link LongArraySet}.
+     * The file is replaced only when all keys are written.
+     *
+     * @throws IllegalArgumentException if keys are not in increasing order
+     */
+    public static void write(Path file, PrimitiveIterator.OfLong keys) throws IOException {
+        try (MappedKeys.Writer writer = new MappedKeys.Writer(file, 8)) {
+            while (keys.hasNext()) {
+                writer.add(keys.nextLong());
+            }
+            writer.commit();
+        }
+    }
+
+    /**
+     * Searches <tt>key</tt> in this set, returns its position in the file, or <tt>(-(insertion point) - 1)</tt>.
+     */
+    private long search(long key) {
+        long low = from;
+        long high = to - 1;
+        while (low <= high) {
+            long middle = (low + high) >>> 1;
+            long element = keys.getLong(middle);
+            if (element < key) {
+                low = middle + 1;
+            } else if (element > key) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Returns index of <tt>key</tt> in this set if it is contained, otherwise <tt>(-(insertion point) - 1)</tt>.
+     */
+    public long indexOf(long key) {
+        long index = search(key);
+        return index < 0 ? index + from : index - from;
+    }
+
+    public boolean contains(long key) {
+        return search(key) >= 0;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Long && contains((long) (Long) o);
+    }
+
+    public long getLong(long index) {
+        if (index < 0 || index >= longSize()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + longSize());
+        }
+        return keys.getLong(from + index);
+    }
+
+    public long firstLong() {
+        if (from == to) {
+            throw new NoSuchElementException("Could not get first element: sorted set is empty");
+        }
+        return keys.getLong(from);
+    }
+
+    public long lastLong() {
+        if (from == to) {
+            throw new NoSuchElementException("Could not get last element: sorted set is empty");
+        }
+        return keys.getLong(to - 1);
+    }
+
+    public long longSize() {
+        return to - from;
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(longSize(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong iterator() {
+        return new PrimitiveIterator.OfLong() {
+            private long next = from;
+
+            @Override
+            public boolean hasNext() {
+                return next < to;
+            }
+
+            @Override
+            public long nextLong() {
+                if (next >= to) {
+                    throw new NoSuchElementException();
+                }
+                return keys.getLong(next++);
+            }
+        };
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong descendingIterator() {
+        return new PrimitiveIterator.OfLong() {
+            private long next = to - 1;
+
+            @Override
+            public boolean hasNext() {
+                return next >= from;
+            }
+
+            @Override
+            public long nextLong() {
+                if (next < from) {
+                    throw new NoSuchElementException();
+                }
+                return keys.getLong(next--);
+            }
+        };
+    }
+
+    @Override
+    public NavigableSet<Long> descendingSet() {
+        return new DescendingSet<>(this);
+    }
+
+    @Override
+    public Comparator<? super Long> comparator() {
+        return null;
+    }
+
+    @Override
+    public Long first() {
+        return firstLong();
+    }
+
+    @Override
+    public Long last() {
+        return lastLong();
+    }
+
+    // Navigation by position in the file: the key at the returned position, if it is in [from, to)
+
+    private long lowerIndex(long key) {
+        long index = search(key);
+        return index < 0 ? ~index - 1 : index - 1;
+    }
+
+    private long floorIndex(long key) {
+        long index = search(key);
+        return index < 0 ? ~index - 1 : index;
+    }
+
+    private long ceilingIndex(long key) {
+        long index = search(key);
+        return index < 0 ? ~index : index;
+    }
+
+    private long higherIndex(long key) {
+        long index = search(key);
+        return index < 0 ? ~index : index + 1;
+    }
+
+    private Long elementAt(long index) {
+        return from <= index && index < to ? keys.getLong(index) : null;
+    }
+
+    @Override
+    public Long lower(Long e) {
+        return elementAt(lowerIndex(e));
+    }
+
+    @Override
+    public Long floor(Long e) {
+        return elementAt(floorIndex(e));
+    }
+
+    @Override
+    public Long ceiling(Long e) {
+        return elementAt(ceilingIndex(e));
+    }
+
+    @Override
+    public Long higher(Long e) {
+        return elementAt(higherIndex(e));
+    }
+
+    @Override
+    public Long pollFirst() {
+        throw new UnsupportedOperationException("MappedLongArraySet is immutable");
+    }
+
+    @Override
+    public Long pollLast() {
+        throw new UnsupportedOperationException("MappedLongArraySet is immutable");
+    }
+
+    @Override
+    public MappedLongArraySet subSet(Long fromElement, boolean fromInclusive, Long toElement, boolean toInclusive) {
+        if (fromElement > toElement) {
+            throw new IllegalArgumentException("fromElement > toElement");
+        }
+        long fromIndex = fromInclusive ? ceilingIndex(fromElement) : higherIndex(fromElement);
+        long toIndex = toInclusive ? floorIndex(toElement) + 1 : lowerIndex(toElement) + 1;
+        return new MappedLongArraySet(keys, fromIndex, Math.max(fromIndex, toIndex));
+    }
+
+    @Override
+    public MappedLongArraySet headSet(Long toElement, boolean inclusive) {
+        long toIndex = inclusive ? floorIndex(toElement) + 1 : lowerIndex(toElement) + 1;
+        return new MappedLongArraySet(keys, from, toIndex);
+    }
+
+    @Override
+    public MappedLongArraySet tailSet(Long fromElement, boolean inclusive) {
+        long fromIndex = inclusive ? ceilingIndex(fromElement) : higherIndex(fromElement);
+        return new MappedLongArraySet(keys, fromIndex, to);
+    }
+
+    @Override
+    public MappedLongArraySet subSet(Long fromElement, Long toElement) {
+        return subSet(fromElement, true, toElement, false);
+    }
+
+    @Override
+    public MappedLongArraySet headSet(Long toElement) {
+        return headSet(toElement, false);
+    }
+
+    @Override
+    public MappedLongArraySet tailSet(Long fromElement) {
+        return tailSet(fromElement, true);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (long i = from; i < to; i++) {
+            hash += Long.hashCode(keys.getLong(i));
+        }
+        return hash;
+    }
+}
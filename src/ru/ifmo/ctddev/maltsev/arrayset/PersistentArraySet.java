@@ -0,0 +1,359 @@
+package ru.ifmo.ctddev.maltsev.arrayset;
+
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+/**
+ * Immutable sorted set which is updated by making new versions: {@link #with(Object)},
+ * {@link #without(Object)} and {@link #withAll(Collection)} return a set with the change and leave this one
+ * as it is.
+ * <p>
+ * A version is a sequence of sorted blocks, each an {@link ArraySet} of about the square root of the set size.
+ * Blocks of a set made from an {@link ArraySet} are views of its array, and versions share all blocks they
+ * do not change: an update copies the changed block and the array of blocks, splitting a block which grows
+ * over twice the size and merging one which shrinks under half of it with a neighbour. So an update takes
+ * <tt>O(sqrt n)</tt> in the worst case, whichever version is updated and however versions branch, and a
+ * search takes <tt>O(log n)</tt>. Views are versions of their own: updates of a view do not go outside of it.
+ */
+public class PersistentArraySet<E> extends AbstractSet<E> implements NavigableSet<E> {
+
+    private static final int MIN_BLOCK = 64;
+
+    // Non-empty, every block is less than the next one
+    private final ArraySet<E>[] blocks;
+    private final int size;
+    private final Comparator<? super E> comparator;
+
+    public PersistentArraySet() {
+        this(new ArraySet<>());
+    }
+
+    public PersistentArraySet(Comparator<? super E> comparator) {
+        this(new ArraySet<>(comparator));
+    }
+
+    public PersistentArraySet(Collection<? extends E> collection, Comparator<? super E> comparator) {
+        this(new ArraySet<>(collection, comparator));
+    }
+
+    /**
+     * Makes a set which shares the array of <tt>base</tt>.
+     */
+    public PersistentArraySet(ArraySet<E> base) {
+        this(split(base), base.size(), base.comparator());
+    }
+
+    private PersistentArraySet(ArraySet<E>[] blocks, int size, Comparator<? super E> comparator) {
+        this.blocks = blocks;
+        this.size = size;
+        this.comparator = comparator;
+    }
+
+    private static int blockSize(int size) {
+        return Math.max(MIN_BLOCK, (int) Math.sqrt(size));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> ArraySet<E>[] newBlocks(int length) {
+        return (ArraySet<E>[]) new ArraySet<?>[length];
+    }
+
+    private static <E> ArraySet<E>[] split(ArraySet<E> base) {
+        int blockSize = blockSize(base.size());
+        ArraySet<E>[] blocks = newBlocks((base.size() + blockSize - 1) / blockSize);
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = base.window(i * blockSize, Math.min(base.size(), (i + 1) * blockSize));
+        }
+        return blocks;
+    }
+
+    private ArraySet<E> singleton(E e) {
+        return new ArraySet<>(Collections.singletonList(e), comparator);
+    }
+
+    /**
+     * Returns this set with <tt>count</tt> blocks from <tt>index</tt> replaced by <tt>block</tt>, which is
+     * dropped if it is empty and split in halves if it is too large.
+     */
+    private PersistentArraySet<E> replace(int index, int count, ArraySet<E> block, int size) {
+        int half = block.size() > 2 * blockSize(size) ? block.size() / 2 : 0;
+        int added = block.isEmpty() ? 0 : half > 0 ? 2 : 1;
+        ArraySet<E>[] result = newBlocks(blocks.length - count + added);
+        System.arraycopy(blocks, 0, result, 0, index);
+        if (half > 0) {
+            result[index] = block.window(0, half);
+            result[index + 1] = block.window(half, block.size());
+        } else if (added > 0) {
+            result[index] = block;
+        }
+        System.arraycopy(blocks, index + count, result, index + added, blocks.length - index - count);
+        return new PersistentArraySet<>(result, size, comparator);
+    }
+
+    /**
+     * Returns this set with <tt>e</tt> added, or this set if it contains <tt>e</tt>.
+     */
+    public PersistentArraySet<E> with(E e) {
+        if (contains(e)) {
+            return this;
+        }
+        if (blocks.length == 0) {
+            ArraySet<E>[] result = newBlocks(1);
+            result[0] = singleton(e);
+            return new PersistentArraySet<>(result, 1, comparator);
+        }
+        int index = Math.min(ceilingBlock(e, true), blocks.length - 1);
+        return replace(index, 1, ArraySet.union(blocks[index], singleton(e)), size + 1);
+    }
+
+    /**
+     * Returns this set without <tt>e</tt>, or this set if it does not contain <tt>e</tt>.
+     */
+    public PersistentArraySet<E> without(E e) {
+        if (!contains(e)) {
+            return this;
+        }
+        int index = ceilingBlock(e, true);
+        ArraySet<E> block = ArraySet.difference(blocks[index], singleton(e));
+        if (block.size() < blockSize(size - 1) / 2 && blocks.length > 1) {
+            return index + 1 < blocks.length
+                    ? replace(index, 2, ArraySet.union(block, blocks[index + 1]), size - 1)
+                    : replace(index - 1, 2, ArraySet.union(blocks[index - 1], block), size - 1);
+        }
+        return replace(index, 1, block, size - 1);
+    }
+
+    /**
+     * Returns this set with all elements of <tt>collection</tt> added. Takes <tt>O(m sqrt n)</tt> for
+     * <tt>m</tt> elements, but at most linear time in the size of the result, when the set is rebuilt
+     * into a single new array.
+     */
+    public PersistentArraySet<E> withAll(Collection<? extends E> collection) {
+        ArraySet<E> elements = new ArraySet<>(collection, comparator);
+        if ((long) elements.size() * blockSize(size) < size) {
+            PersistentArraySet<E> set = this;
+            for (E e : elements) {
+                set = set.with(e);
+            }
+            return set;
+        }
+        return new PersistentArraySet<>(ArraySet.union(new ArraySet<>(this, comparator), elements));
+    }
+
+    /**
+     * Returns the same set with all blocks copied to a single new array, which does not keep arrays of
+     * other versions from being collected.
+     */
+    public PersistentArraySet<E> compact() {
+        return new PersistentArraySet<>(new ArraySet<>(this, comparator));
+    }
+
+    // Searches over blocks by their bounds
+
+    /**
+     * Returns index of the first block with the last element greater than <tt>e</tt>, or equal to it if
+     * <tt>inclusive</tt>, or number of blocks if there is none.
+     */
+    private int ceilingBlock(E e, boolean inclusive) {
+        int low = 0;
+        int high = blocks.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int compared = ArraySet.compare(blocks[middle].last(), e, comparator);
+            if (compared > 0 || inclusive && compared == 0) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns index of the last block with the first element less than <tt>e</tt>, or equal to it if
+     * <tt>inclusive</tt>, or <tt>-1</tt> if there is none.
+     */
+    private int floorBlock(E e, boolean inclusive) {
+        int low = -1;
+        int high = blocks.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            int compared = ArraySet.compare(blocks[middle].first(), e, comparator);
+            if (compared < 0 || inclusive && compared == 0) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean contains(Object o) {
+        int index = ceilingBlock((E) o, true);
+        return index < blocks.length && blocks[index].contains(o);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new BlockIterator(false);
+    }
+
+    @Override
+    public Iterator<E> descendingIterator() {
+        return new BlockIterator(true);
+    }
+
+    /**
+     * Iterates over elements of the blocks one block after another.
+     */
+    private class BlockIterator implements Iterator<E> {
+        private final boolean descending;
+        private int block;
+        private Iterator<E> elements = Collections.emptyIterator();
+
+        BlockIterator(boolean descending) {
+            this.descending = descending;
+            this.block = descending ? blocks.length : -1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!elements.hasNext()) {
+                int next = descending ? block - 1 : block + 1;
+                if (next < 0 || next >= blocks.length) {
+                    return false;
+                }
+                block = next;
+                elements = descending ? blocks[block].descendingIterator() : blocks[block].iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return elements.next();
+        }
+    }
+
+    @Override
+    public NavigableSet<E> descendingSet() {
+        return new DescendingSet<>(this);
+    }
+
+    @Override
+    public E lower(E e) {
+        int index = floorBlock(e, false);
+        return index < 0 ? null : blocks[index].lower(e);
+    }
+
+    @Override
+    public E floor(E e) {
+        int index = floorBlock(e, true);
+        return index < 0 ? null : blocks[index].floor(e);
+    }
+
+    @Override
+    public E ceiling(E e) {
+        int index = ceilingBlock(e, true);
+        return index == blocks.length ? null : blocks[index].ceiling(e);
+    }
+
+    @Override
+    public E higher(E e) {
+        int index = ceilingBlock(e, false);
+        return index == blocks.length ? null : blocks[index].higher(e);
+    }
+
+    @Override
+    public E first() {
+        if (size == 0) {
+            throw new NoSuchElementException("Could not get first element: sorted set is empty");
+        }
+        return blocks[0].first();
+    }
+
+    @Override
+    public E last() {
+        if (size == 0) {
+            throw new NoSuchElementException("Could not get last element: sorted set is empty");
+        }
+        return blocks[blocks.length - 1].last();
+    }
+
+    @Override
+    public E pollFirst() {
+        throw new UnsupportedOperationException("PersistentArraySet is immutable, use without");
+    }
+
+    @Override
+    public E pollLast() {
+        throw new UnsupportedOperationException("PersistentArraySet is immutable, use without");
+    }
+
+    /**
+     * Returns view of blocks from <tt>fromBlock</tt> to <tt>toBlock</tt> inclusive, where only the outer
+     * blocks may have elements out of the view.
+     */
+    private PersistentArraySet<E> window(int fromBlock, int toBlock, UnaryOperator<ArraySet<E>> view) {
+        List<ArraySet<E>> result = new ArrayList<>();
+        int size = 0;
+        for (int i = fromBlock; i <= toBlock; i++) {
+            ArraySet<E> block = i == fromBlock || i == toBlock ? view.apply(blocks[i]) : blocks[i];
+            if (!block.isEmpty()) {
+                result.add(block);
+                size += block.size();
+            }
+        }
+        return new PersistentArraySet<>(result.toArray(newBlocks(result.size())), size, comparator);
+    }
+
+    @Override
+    public PersistentArraySet<E> subSet(E fromElement, boolean fromInclusive, E toElement, boolean toInclusive) {
+        if (ArraySet.compare(fromElement, toElement, comparator) > 0) {
+            throw new IllegalArgumentException("fromElement > toElement");
+        }
+        return window(ceilingBlock(fromElement, fromInclusive), floorBlock(toElement, toInclusive),
+                block -> block.subSet(fromElement, fromInclusive, toElement, toInclusive));
+    }
+
+    @Override
+    public PersistentArraySet<E> headSet(E toElement, boolean inclusive) {
+        return window(0, floorBlock(toElement, inclusive), block -> block.headSet(toElement, inclusive));
+    }
+
+    @Override
+    public PersistentArraySet<E> tailSet(E fromElement, boolean inclusive) {
+        return window(ceilingBlock(fromElement, inclusive), blocks.length - 1,
+                block -> block.tailSet(fromElement, inclusive));
+    }
+
+    @Override
+    public PersistentArraySet<E> subSet(E fromElement, E toElement) {
+        return subSet(fromElement, true, toElement, false);
+    }
+
+    @Override
+    public PersistentArraySet<E> headSet(E toElement) {
+        return headSet(toElement, false);
+    }
+
+    @Override
+    public PersistentArraySet<E> tailSet(E fromElement) {
+        return tailSet(fromElement, true);
+    }
+}
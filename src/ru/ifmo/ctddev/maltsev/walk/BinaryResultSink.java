@@ -0,0 +1,168 @@
+package ru.ifmo.ctddev.maltsev.walk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes walk results in the binary columnar format read by {@link WalkResultReader}.
+ * <p>
+ * The file starts with a header and is followed by blocks of at most {@value #BLOCK_ROWS} results,
+ * every block stores its columns one after another, so a reader can skip the columns it does not need.
+ * All numbers are big-endian:
+ * <pre>
+ *     header: int magic, int version, int digestLength, short idLength, byte[idLength] algorithm id
+ *     block:  int count, int[5] column lengths in bytes,
+ *             byte[count][digestLength] digests, long[count] sizes, long[count] mtimes (ns since the epoch),
+ *             int[count] modes, paths
+ *     end:    int 0
+ * </pre>
+ * A path is stored as varint length of the prefix shared with the previous path of the block, varint
+ * length of the rest and the rest in UTF-8. Modes use the bits of <tt>st_mode</tt>: file type, and
+ * read, write and execute permissions when the attributes are {@link PosixFileAttributes}. Java gives no
+ * access to setuid, setgid and sticky bits. A file which could not be walked has size <tt>-1</tt>,
+ * mtime and mode <tt>0</tt>.
+ */
+class BinaryResultSink implements ResultSink {
+
+    static final int MAGIC = 0x52574231;
+    static final int VERSION = 1;
+    static final int BLOCK_ROWS = 4096;
+    static final int COLUMNS = 5;
+
+    static final int S_IFREG = 0100000;
+    static final int S_IFDIR = 0040000;
+    static final int S_IFLNK = 0120000;
+
+    private final WritableByteChannel channel;
+    private final int digestLength;
+    private final WalkStats stats;
+    private final byte[] digests;
+    private final long[] sizes = new long[BLOCK_ROWS];
+    private final long[] mtimes = new long[BLOCK_ROWS];
+    private final int[] modes = new int[BLOCK_ROWS];
+    private ByteBuffer paths = ByteBuffer.allocate(BLOCK_ROWS * 16);
+    private ByteBuffer block = ByteBuffer.allocateDirect(1 << 16);
+    private byte[] previous = new byte[0];
+    private int count;
+
+    /**
+     * @param stats receives the time of every write to the channel
+     */
+    BinaryResultSink(WritableByteChannel channel, HashAlgorithm algorithm, WalkStats stats) throws IOException {
+        this.channel = channel;
+        this.digestLength = algorithm.newHasher().length();
+        this.stats = stats;
+        this.digests = new byte[BLOCK_ROWS * digestLength];
+        byte[] id = algorithm.id().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(14 + id.length);
+        header.putInt(MAGIC).putInt(VERSION).putInt(digestLength).putShort((short) id.length).put(id);
+        writeFully((ByteBuffer) header.flip());
+    }
+
+    @Override
+    public void write(String file, BasicFileAttributes attributes, byte[] digest) throws IOException {
+        System.arraycopy(digest, 0, digests, count * digestLength, digestLength);
+        sizes[count] = attributes == null ? -1 : attributes.size();
+        mtimes[count] = attributes == null ? 0 : attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        modes[count] = attributes == null ? 0 : mode(attributes);
+
+        byte[] path = file.getBytes(StandardCharsets.UTF_8);
+        int shared = 0;
+        int limit = Math.min(path.length, previous.length);
+        while (shared < limit && path[shared] == previous[shared]) {
+            shared++;
+        }
+        ensurePaths(10 + path.length - shared);
+        putVarint(paths, shared);
+        putVarint(paths, path.length - shared);
+        paths.put(path, shared, path.length - shared);
+        previous = path;
+
+        if (++count == BLOCK_ROWS) {
+            flush();
+        }
+    }
+
+    static int mode(BasicFileAttributes attributes) {
+        int mode = attributes.isRegularFile() ? S_IFREG
+                : attributes.isDirectory() ? S_IFDIR
+                : attributes.isSymbolicLink() ? S_IFLNK
+                : 0;
+        if (attributes instanceof PosixFileAttributes) {
+            // PosixFilePermission constants go from OWNER_READ (0400) to OTHERS_EXECUTE (0001)
+            for (PosixFilePermission permission : ((PosixFileAttributes) attributes).permissions()) {
+                mode |= 0400 >>> permission.ordinal();
+            }
+        }
+        return mode;
+    }
+
+    private void ensurePaths(int bytes) {
+        if (paths.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * paths.capacity(), paths.position() + bytes));
+            paths.flip();
+            larger.put(paths);
+            paths = larger;
+        }
+    }
+
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer.put((byte) (value & 0x7f | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private void flush() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        int length = 4 + 4 * COLUMNS + count * (digestLength + 8 + 8 + 4) + paths.position();
+        if (block.capacity() < length) {
+            block = ByteBuffer.allocateDirect(Math.max(length, 2 * block.capacity()));
+        }
+        block.clear();
+        block.putInt(count);
+        block.putInt(count * digestLength).putInt(count * 8).putInt(count * 8).putInt(count * 4).putInt(paths.position());
+        block.put(digests, 0, count * digestLength);
+        for (int i = 0; i < count; i++) {
+            block.putLong(sizes[i]);
+        }
+        for (int i = 0; i < count; i++) {
+            block.putLong(mtimes[i]);
+        }
+        for (int i = 0; i < count; i++) {
+            block.putInt(modes[i]);
+        }
+        block.put((ByteBuffer) paths.flip());
+        writeFully((ByteBuffer) block.flip());
+        paths.clear();
+        previous = new byte[0];
+        count = 0;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        long time = System.nanoTime();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        stats.flushed(System.nanoTime() - time);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            writeFully((ByteBuffer) ByteBuffer.allocate(4).putInt(0).flip());
+        } finally {
+            channel.close();
+        }
+    }
+}
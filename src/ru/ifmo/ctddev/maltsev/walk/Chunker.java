@@ -0,0 +1,106 @@
+package ru.ifmo.ctddev.maltsev.walk;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+/**
+ * Content-defined chunking with a Gear rolling hash.
+ * <p>
+ * A chunk ends after a byte where the top bits of the rolling hash are zero, but is never shorter than
+ * a quarter or longer than eight times the average size. The chunker sees the same buffers as the file
+ * hasher and only remembers where the current chunk began, so the file is read once and memory does not
+ * depend on its size. Every chunk is written as <tt>digest offset length path</tt>.
+ */
+class Chunker {
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x5eed_9ea7_c0de_cdc1L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final FileHasher hasher;
+    private final TextResultSink sink;
+    private final byte[] digest;
+    private final long mask;
+    private final int minSize;
+    private final int maxSize;
+
+    private Path file;
+    private long fingerprint;
+    private long offset;
+    private long chunkStart;
+
+    /**
+     * @param averageSize expected chunk size, a power of two
+     */
+    Chunker(FileHasher hasher, TextResultSink sink, int averageSize) {
+        this.hasher = hasher;
+        this.sink = sink;
+        this.digest = new byte[hasher.length()];
+        this.mask = ~(-1L >>> Integer.numberOfTrailingZeros(averageSize));
+        this.minSize = averageSize / 4;
+        this.maxSize = averageSize * 8;
+    }
+
+    void start(Path file) {
+        this.file = file;
+        hasher.reset();
+        fingerprint = 0;
+        offset = 0;
+        chunkStart = 0;
+    }
+
+    /**
+     * Consumes the remaining bytes of <tt>buffer</tt>, leaving its position and limit unchanged.
+     */
+    void update(ByteBuffer buffer) {
+        int position = buffer.position();
+        int limit = buffer.limit();
+        int from = position;
+        long fp = fingerprint;
+        for (int i = position; i < limit; i++) {
+            fp = (fp << 1) + GEAR[buffer.get(i) & 0xff];
+            long length = offset + (i - position) + 1 - chunkStart;
+            if (length >= minSize && ((fp & mask) == 0 || length >= maxSize)) {
+                hasher.update((ByteBuffer) buffer.limit(i + 1).position(from));
+                buffer.limit(limit);
+                emit(length);
+                chunkStart += length;
+                from = i + 1;
+                fp = 0;
+            }
+        }
+        hasher.update((ByteBuffer) buffer.position(from));
+        buffer.position(position);
+        fingerprint = fp;
+        offset += limit - position;
+    }
+
+    /**
+     * Emits the last chunk of the file.
+     */
+    void finish() {
+        if (offset > chunkStart) {
+            emit(offset - chunkStart);
+        }
+    }
+
+    private void emit(long length) {
+        hasher.digest(digest);
+        hasher.reset();
+        try {
+            synchronized (sink) {
+                sink.writeChunk(file, chunkStart, length, digest);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
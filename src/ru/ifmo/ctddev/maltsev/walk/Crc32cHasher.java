@@ -0,0 +1,119 @@
+package ru.ifmo.ctddev.maltsev.walk;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli).
+ * <p>
+ * On Java 9 and later the intrinsic <tt>java.util.zip.CRC32C</tt> is used. The project is built for
+ * Java 8, so it is looked up at run time; without it a slicing-by-8 table implementation is used.
+ */
+class Crc32cHasher implements FileHasher {
+
+    private static final MethodHandle NEW_CRC32C;
+    private static final MethodHandle UPDATE;
+    private static final int[][] TABLE = new int[8][256];
+
+    static {
+        MethodHandle constructor = null;
+        MethodHandle update = null;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            constructor = lookup.findConstructor(Class.forName("java.util.zip.CRC32C"), MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Checksum.class));
+            update = lookup.findVirtual(Checksum.class, "update", MethodType.methodType(void.class, ByteBuffer.class));
+        } catch (ReflectiveOperationException e) {
+            constructor = null;
+            update = null;
+        }
+        NEW_CRC32C = constructor;
+        UPDATE = update;
+
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int j = 0; j < 8; j++) {
+                crc = (crc >>> 1) ^ (0x82F63B78 & -(crc & 1));
+            }
+            TABLE[0][i] = crc;
+        }
+        for (int k = 1; k < 8; k++) {
+            for (int i = 0; i < 256; i++) {
+                int previous = TABLE[k - 1][i];
+                TABLE[k][i] = (previous >>> 8) ^ TABLE[0][previous & 0xff];
+            }
+        }
+    }
+
+    private final Checksum checksum;
+    private int crc = -1;
+
+    Crc32cHasher() {
+        Checksum intrinsic = null;
+        if (NEW_CRC32C != null) {
+            try {
+                intrinsic = (Checksum) NEW_CRC32C.invokeExact();
+            } catch (Throwable e) {
+                intrinsic = null;
+            }
+        }
+        checksum = intrinsic;
+    }
+
+    @Override
+    public int length() {
+        return 4;
+    }
+
+    @Override
+    public void reset() {
+        if (checksum != null) {
+            checksum.reset();
+        }
+        crc = -1;
+    }
+
+    @Override
+    public void update(ByteBuffer buffer) {
+        if (checksum != null) {
+            try {
+                UPDATE.invokeExact(checksum, buffer);
+                return;
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        int c = crc;
+        int position = buffer.position();
+        int limit = buffer.limit();
+        boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+        for (; position + 8 <= limit; position += 8) {
+            long word = buffer.getLong(position);
+            if (bigEndian) {
+                word = Long.reverseBytes(word);
+            }
+            int low = c ^ (int) word;
+            int high = (int) (word >>> 32);
+            c = TABLE[7][low & 0xff] ^ TABLE[6][(low >>> 8) & 0xff]
+                    ^ TABLE[5][(low >>> 16) & 0xff] ^ TABLE[4][low >>> 24]
+                    ^ TABLE[3][high & 0xff] ^ TABLE[2][(high >>> 8) & 0xff]
+                    ^ TABLE[1][(high >>> 16) & 0xff] ^ TABLE[0][high >>> 24];
+        }
+        for (; position < limit; position++) {
+            c = (c >>> 8) ^ TABLE[0][(c ^ buffer.get(position)) & 0xff];
+        }
+        buffer.position(limit);
+        crc = c;
+    }
+
+    @Override
+    public void digest(byte[] digest) {
+        Digests.putInt(digest, checksum != null ? (int) checksum.getValue() : ~crc);
+    }
+}
@@ -0,0 +1,307 @@
+package ru.ifmo.ctddev.maltsev.walk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Reads files and feeds them to a {@link FileHasher}. Not thread-safe, every thread uses its own instance.
+ * <p>
+ * Files below the mapping threshold are read into a direct buffer owned by the instance, which grows
+ * when needed and is reused for all files. A small file is read with a single request larger than the
+ * file. Large files are read in blocks of {@value #MIN_LARGE_READ} bytes or more, sized so that a read
+ * takes about {@value #TARGET_READ_MILLIS} ms at the throughput measured on previous large files.
+ */
+class Digester implements PathHasher {
+
+    private static final int MIN_READ = 4096;
+    private static final int MIN_LARGE_READ = 1 << 20;
+    private static final int MAX_READ = 8 << 20;
+    private static final int SPECIAL_READ = 1 << 16;
+    private static final int TARGET_READ_MILLIS = 4;
+    private static final long MAP_WINDOW = 1L << 30;
+    private static final int ASYNC_BLOCK = 1 << 18;
+    private static final int ZERO_BLOCK = 4096;
+
+    private final FileHasher hasher;
+    private final long mmapThreshold;
+    private final int ioDepth;
+    private final Chunker chunker;
+    private final WalkStats stats;
+    private final boolean foldZeros;
+    private ByteBuffer[] asyncBuffers;
+    private ByteBuffer readBuffer = ByteBuffer.allocateDirect(MIN_READ);
+    private double bytesPerMilli;
+    private long length;
+    private long readNanos;
+    private long digestNanos;
+
+    /**
+     * @param ioDepth number of reads kept in flight for a regular file, <tt>0</tt> to read synchronously
+     * @param chunker receives the same data as <tt>hasher</tt>, may be <tt>null</tt>
+     * @param stats receives the length of every hashed file and time spent reading and digesting it
+     */
+    Digester(FileHasher hasher, long mmapThreshold, int ioDepth, Chunker chunker, WalkStats stats) {
+        this.hasher = hasher;
+        this.mmapThreshold = mmapThreshold;
+        this.ioDepth = ioDepth;
+        this.chunker = chunker;
+        this.stats = stats;
+        this.foldZeros = chunker == null && hasher.foldsZeros();
+    }
+
+    @Override
+    public byte[] hash(Path path, BasicFileAttributes attributes) throws IOException {
+        return hash(path, attributes.isRegularFile() ? attributes.size() : -1);
+    }
+
+    /**
+     * Hashes a regular file of the given size, or a special file if <tt>size</tt> is negative.
+     */
+    byte[] hash(Path path, long size) throws IOException {
+        start(path);
+        if (size >= 0 && ioDepth > 0) {
+            hashAsync(path);
+            return finish();
+        }
+        boolean mapped = false;
+        if (size >= 0 && size >= mmapThreshold) {
+            try {
+                hashMapped(path);
+                mapped = true;
+            } catch (IOException e) {
+                // Some file systems cannot map files, read them as a stream instead
+                start(path);
+            }
+        }
+        if (!mapped) {
+            hashStream(path, size, Long.MAX_VALUE);
+        }
+        return finish();
+    }
+
+    /**
+     * Hashes at most <tt>length</tt> first bytes of the file.
+     */
+    byte[] hashPrefix(Path path, int length) throws IOException {
+        start(path);
+        hashStream(path, -1, length);
+        return finish();
+    }
+
+    private byte[] finish() {
+        if (chunker != null) {
+            chunker.finish();
+        }
+        stats.fileHashed(length, readNanos, digestNanos);
+        byte[] digest = new byte[hasher.length()];
+        hasher.digest(digest);
+        return digest;
+    }
+
+    /**
+     * Hashes at most <tt>length</tt> bytes of a file of the given size, or of unknown size if it is negative.
+     */
+    private void hashStream(Path path, long size, long length) throws IOException {
+        long time = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            int readSize = readSize(size, length);
+            ByteBuffer buffer = readBuffer(readSize);
+            long total = 0;
+            while (length > 0) {
+                buffer.clear().limit((int) Math.min(readSize, length));
+                int requested = buffer.limit();
+                int read = channel.read(buffer);
+                time = readDone(time);
+                if (read < 0) {
+                    break;
+                }
+                buffer.flip();
+                update(buffer);
+                total += read;
+                length -= read;
+                if (size >= 0 && total >= size && read < requested) {
+                    // A short read at the known end of a regular file, no need to ask for the end of file
+                    break;
+                }
+                time = System.nanoTime();
+            }
+        }
+        if (size >= MIN_LARGE_READ && readNanos > 0) {
+            double measured = this.length / (readNanos / 1e6);
+            bytesPerMilli = bytesPerMilli == 0 ? measured : 0.75 * bytesPerMilli + 0.25 * measured;
+        }
+    }
+
+    /**
+     * Returns the size of one read request for a file of the given size.
+     */
+    private int readSize(long size, long length) {
+        if (size < 0) {
+            return (int) Math.min(length, SPECIAL_READ);
+        }
+        long wanted = Math.min(size + 1, length);
+        if (wanted > MIN_LARGE_READ) {
+            long adaptive = (long) (bytesPerMilli * TARGET_READ_MILLIS);
+            wanted = Math.min(wanted, Math.max(adaptive, MIN_LARGE_READ));
+        }
+        return (int) Math.min(wanted, MAX_READ);
+    }
+
+    /**
+     * Returns the reusable buffer, grown to a power of two of at least <tt>size</tt> bytes if it is smaller.
+     */
+    private ByteBuffer readBuffer(int size) {
+        if (readBuffer.capacity() < size) {
+            readBuffer = ByteBuffer.allocateDirect(Math.min(Integer.highestOneBit(size - 1) << 1, MAX_READ));
+        }
+        return readBuffer;
+    }
+
+    private void hashMapped(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += MAP_WINDOW) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                        position, Math.min(MAP_WINDOW, size - position));
+                update(buffer);
+            }
+        }
+    }
+
+    /**
+     * Keeps {@link #ioDepth} consecutive blocks of the file requested at once and hashes them in order,
+     * requesting the next block as soon as the oldest one is hashed.
+     */
+    private void hashAsync(Path path) throws IOException {
+        if (asyncBuffers == null) {
+            asyncBuffers = new ByteBuffer[ioDepth];
+            for (int i = 0; i < ioDepth; i++) {
+                asyncBuffers[i] = ByteBuffer.allocateDirect(ASYNC_BLOCK);
+            }
+        }
+        try (AsynchronousFileChannel channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            @SuppressWarnings("unchecked")
+            Future<Integer>[] reads = (Future<Integer>[]) new Future<?>[ioDepth];
+            long requested = 0;
+            for (int i = 0; i < ioDepth && requested < size; i++, requested += ASYNC_BLOCK) {
+                reads[i] = request(channel, asyncBuffers[i], requested, size);
+            }
+            for (long position = 0; position < size; position += ASYNC_BLOCK) {
+                int slot = (int) (position / ASYNC_BLOCK % ioDepth);
+                ByteBuffer buffer = asyncBuffers[slot];
+                long time = System.nanoTime();
+                int read = await(reads[slot]);
+                while (read >= 0 && buffer.hasRemaining()) {
+                    // Short read, the rest of the block is requested synchronously
+                    read = await(channel.read(buffer, position + buffer.position()));
+                }
+                readDone(time);
+                buffer.flip();
+                update(buffer);
+                if (buffer.limit() < Math.min(ASYNC_BLOCK, size - position)) {
+                    break;
+                }
+                if (requested < size) {
+                    reads[slot] = request(channel, buffer, requested, size);
+                    requested += ASYNC_BLOCK;
+                }
+            }
+        }
+    }
+
+    private static Future<Integer> request(AsynchronousFileChannel channel, ByteBuffer buffer, long position, long size) {
+        buffer.clear();
+        buffer.limit((int) Math.min(ASYNC_BLOCK, size - position));
+        return channel.read(buffer, position);
+    }
+
+    private static int await(Future<Integer> read) throws IOException {
+        try {
+            return read.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading", e);
+        }
+    }
+
+    private long readDone(long start) {
+        long time = System.nanoTime();
+        readNanos += time - start;
+        return time;
+    }
+
+    private void start(Path path) {
+        length = 0;
+        readNanos = 0;
+        digestNanos = 0;
+        hasher.reset();
+        if (chunker != null) {
+            chunker.start(path);
+        }
+    }
+
+    private void update(ByteBuffer buffer) {
+        long time = System.nanoTime();
+        length += buffer.remaining();
+        if (chunker != null) {
+            chunker.update(buffer);
+        }
+        if (foldZeros) {
+            updateFoldingZeros(buffer);
+        } else {
+            hasher.update(buffer);
+        }
+        digestNanos += System.nanoTime() - time;
+    }
+
+    /**
+     * Passes whole blocks of zeros, such as holes of sparse files, to {@link FileHasher#updateZeros(long)}
+     * and the rest of the buffer to {@link FileHasher#update(ByteBuffer)}. A block with data is usually
+     * recognized by its first word, so data costs almost nothing extra.
+     */
+    private void updateFoldingZeros(ByteBuffer buffer) {
+        int limit = buffer.limit();
+        int from = buffer.position();
+        long zeros = 0;
+        for (int block = from; block + ZERO_BLOCK <= limit; block += ZERO_BLOCK) {
+            if (isZero(buffer, block)) {
+                if (from < block) {
+                    hasher.update((ByteBuffer) buffer.limit(block).position(from));
+                    buffer.limit(limit);
+                }
+                zeros += ZERO_BLOCK;
+                from = block + ZERO_BLOCK;
+            } else if (zeros > 0) {
+                hasher.updateZeros(zeros);
+                zeros = 0;
+            }
+        }
+        if (zeros > 0) {
+            hasher.updateZeros(zeros);
+        }
+        hasher.update((ByteBuffer) buffer.position(from));
+    }
+
+    private static boolean isZero(ByteBuffer buffer, int block) {
+        for (int i = block; i < block + ZERO_BLOCK; i += 8) {
+            if (buffer.getLong(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
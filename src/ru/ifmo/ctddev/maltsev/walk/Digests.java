@@ -0,0 +1,25 @@
+package ru.ifmo.ctddev.maltsev.walk;
+
+/**
+ * Helpers for digests produced by {@link FileHasher}.
+ */
+class Digests {
+
+    private Digests() {
+    }
+
+    static void putInt(byte[] digest, int value) {
+        digest[0] = (byte) (value >>> 24);
+        digest[1] = (byte) (value >>> 16);
+        digest[2] = (byte) (value >>> 8);
+        digest[3] = (byte) value;
+    }
+
+    static void putLong(byte[] digest, long value) {
+        putInt(digest, (int) (value >>> 32));
+        digest[4] = (byte) (value >>> 24);
+        digest[5] = (byte) (value >>> 16);
+        digest[6] = (byte) (value >>> 8);
+        digest[7] = (byte) value;
+    }
+}
@@ -0,0 +1,149 @@
+package ru.ifmo.ctddev.maltsev.walk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Finds sets of files with equal contents among the walked files.
+ * <p>
+ * Files are grouped by size while walking, so a file with a unique size is never read. In groups with
+ * several files only the first {@value #PREFIX_LENGTH} bytes are hashed, and whole files are hashed
+ * only when their prefixes collide. Every file is reported once, even if it is reached through
+ * several roots or hard links.
+ */
+class DuplicateFinder implements WalkHandler {
+
+    static final int PREFIX_LENGTH = 4096;
+
+    private final Set<Object> seen = new HashSet<>();
+    private final Map<Long, List<Entry>> bySize = new HashMap<>();
+    private int files;
+    private int prefixHashed;
+    private int fullyHashed;
+
+    private static class Entry {
+        final Path path;
+        final long size;
+        final int index;
+        byte[] digest;
+
+        Entry(Path path, long size, int index) {
+            this.path = path;
+            this.size = size;
+            this.index = index;
+        }
+    }
+
+    @Override
+    public void file(Path file, BasicFileAttributes attributes) {
+        if (!attributes.isRegularFile()) {
+            return;
+        }
+        Object key = attributes.fileKey() != null ? attributes.fileKey() : file.toAbsolutePath().normalize();
+        if (seen.add(key)) {
+            bySize.computeIfAbsent(attributes.size(), size -> new ArrayList<>()).add(new Entry(file, attributes.size(), files++));
+        }
+    }
+
+    @Override
+    public void failed(String file) {
+        // Already reported by the walk, such a file cannot be compared
+    }
+
+    /**
+     * Hashes candidates on <tt>threads</tt> threads and writes every set of duplicates to <tt>sink</tt>,
+     * followed by an empty line. Sets are ordered by the walk order of their first file.
+     */
+    void find(int threads, ThreadLocal<Digester> digesters, TextResultSink sink)
+            throws IOException, InterruptedException {
+        List<List<Entry>> candidates = new ArrayList<>();
+        for (List<Entry> group : bySize.values()) {
+            if (group.size() > 1) {
+                candidates.add(group);
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Entry> toHash = new ArrayList<>();
+            candidates.forEach(toHash::addAll);
+            hashAll(executor, toHash, entry -> digesters.get().hashPrefix(entry.path, PREFIX_LENGTH));
+            prefixHashed += toHash.size();
+            candidates = regroup(candidates);
+
+            toHash.clear();
+            for (List<Entry> group : candidates) {
+                if (group.get(0).size > PREFIX_LENGTH) {
+                    toHash.addAll(group);
+                }
+            }
+            hashAll(executor, toHash, entry -> digesters.get().hash(entry.path, entry.size));
+            fullyHashed += toHash.size();
+            candidates = regroup(candidates);
+        } finally {
+            executor.shutdown();
+        }
+
+        candidates.sort(Comparator.comparingInt(group -> group.get(0).index));
+        for (List<Entry> group : candidates) {
+            for (Entry entry : group) {
+                sink.write(entry.path.toString(), entry.digest);
+            }
+            sink.writeLineBreak();
+        }
+        System.err.println("Duplicates: " + files + " files, " + prefixHashed + " prefixes and "
+                + fullyHashed + " whole files hashed, " + candidates.size() + " sets found");
+    }
+
+    private interface EntryHasher {
+        byte[] hash(Entry entry) throws IOException;
+    }
+
+    private static void hashAll(ExecutorService executor, List<Entry> entries, EntryHasher hasher)
+            throws InterruptedException {
+        List<Callable<Void>> tasks = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            tasks.add(() -> {
+                try {
+                    entry.digest = hasher.hash(entry);
+                } catch (IOException e) {
+                    System.err.println(e.getMessage() + " (Failed to read from file)");
+                    entry.digest = null;
+                }
+                return null;
+            });
+        }
+        for (Future<Void> future : executor.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Splits every group by digest, keeping only subgroups with several files in walk order.
+     */
+    private static List<List<Entry>> regroup(List<List<Entry>> groups) {
+        List<List<Entry>> result = new ArrayList<>();
+        for (List<Entry> group : groups) {
+            Map<ByteBuffer, List<Entry>> byDigest = new LinkedHashMap<>();
+            for (Entry entry : group) {
+                if (entry.digest != null) {
+                    byDigest.computeIfAbsent(ByteBuffer.wrap(entry.digest), digest -> new ArrayList<>()).add(entry);
+                }
+            }
+            for (List<Entry> subgroup : byDigest.values()) {
+                if (subgroup.size() > 1) {
+                    result.add(subgroup);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,54 @@
+package ru.ifmo.ctddev.maltsev.walk;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental hash of file contents used by {@link RecursiveWalk}.
+ * <p>
+ * An instance is owned by a single thread and is reused for many files:
+ * {@link #reset()} starts a new file, {@link #update(ByteBuffer)} is called for each block read
+ * and {@link #digest(byte[])} stores the result. Implementations must not allocate in
+ * {@link #update(ByteBuffer)}.
+ */
+public interface FileHasher {
+
+    /**
+     * Returns number of bytes in the digest.
+     */
+    int length();
+
+    /**
+     * Forgets all data passed so far.
+     */
+    void reset();
+
+    /**
+     * Hashes all remaining bytes of <tt>buffer</tt> and moves its position to the limit.
+     */
+    void update(ByteBuffer buffer);
+
+    /**
+     * Hashes <tt>count</tt> zero bytes, as if they were passed to {@link #update(ByteBuffer)}.
+     */
+    default void updateZeros(long count) {
+        ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(count, 1 << 16));
+        for (; count > 0; count -= zeros.capacity()) {
+            zeros.clear().limit((int) Math.min(count, zeros.capacity()));
+            update(zeros);
+        }
+    }
+
+    /**
+     * Tells whether {@link #updateZeros(long)} is much faster than hashing the zeros, so that runs of
+     * zeros, such as holes of sparse files, are worth looking for.
+     */
+    default boolean foldsZeros() {
+        return false;
+    }
+
+    /**
+     * Stores the digest of all data passed since the last reset into the first {@link #length()}
+     * bytes of <tt>digest</tt>, most significant byte first.
+     */
+    void digest(byte[] digest);
+}
@@ -0,0 +1,91 @@
+package ru.ifmo.ctddev.maltsev.walk;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 32-bit FNV-1, the original hash of {@link RecursiveWalk}.
+ * <p>
+ * The arithmetic is done in <tt>int</tt>, so the overflow replaces the reduction modulo 2<sup>32</sup>,
+ * and eight bytes are taken from the buffer at once.
+ */
+class Fnv1Hasher implements FileHasher {
+
+    private static final int FNV_INIT = 0x811c9dc5;
+    private static final int FNV_PRIME = 16777619;
+
+    private int hash = FNV_INIT;
+
+    @Override
+    public int length() {
+        return 4;
+    }
+
+    @Override
+    public void reset() {
+        hash = FNV_INIT;
+    }
+
+    @Override
+    public void update(ByteBuffer buffer) {
+        int h = hash;
+        int position = buffer.position();
+        int limit = buffer.limit();
+        if (buffer.hasArray()) {
+            byte[] array = buffer.array();
+            int offset = buffer.arrayOffset();
+            for (int i = offset + position; i < offset + limit; i++) {
+                h = (h * FNV_PRIME) ^ (array[i] & 0xff);
+            }
+        } else {
+            // getLong is big-endian unless the caller changed the order, so check it once
+            boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+            for (; position + 8 <= limit; position += 8) {
+                long word = buffer.getLong(position);
+                if (!bigEndian) {
+                    word = Long.reverseBytes(word);
+                }
+                h = (h * FNV_PRIME) ^ (int) (word >>> 56);
+                h = (h * FNV_PRIME) ^ ((int) (word >>> 48) & 0xff);
+                h = (h * FNV_PRIME) ^ ((int) (word >>> 40) & 0xff);
+                h = (h * FNV_PRIME) ^ ((int) (word >>> 32) & 0xff);
+                h = (h * FNV_PRIME) ^ ((int) (word >>> 24) & 0xff);
+                h = (h * FNV_PRIME) ^ ((int) (word >>> 16) & 0xff);
+                h = (h * FNV_PRIME) ^ ((int) (word >>> 8) & 0xff);
+                h = (h * FNV_PRIME) ^ ((int) word & 0xff);
+            }
+            for (; position < limit; position++) {
+                h = (h * FNV_PRIME) ^ (buffer.get(position) & 0xff);
+            }
+        }
+        buffer.position(limit);
+        hash = h;
+    }
+
+    /**
+     * A zero byte only multiplies the hash by the prime, so <tt>count</tt> of them multiply it by
+     * the prime to the power of <tt>count</tt>, computed by repeated squaring.
+     */
+    @Override
+    public void updateZeros(long count) {
+        int h = hash;
+        int power = FNV_PRIME;
+        for (; count > 0; count >>>= 1) {
+            if ((count & 1) != 0) {
+                h *= power;
+            }
+            power *= power;
+        }
+        hash = h;
+    }
+
+    @Override
+    public boolean foldsZeros() {
+        return true;
+    }
+
+    @Override
+    public void digest(byte[] digest) {
+        Digests.putInt(digest, hash);
+    }
+}
@@ -0,0 +1,79 @@
+package ru.ifmo.ctddev.maltsev.walk;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 64-bit FNV-1a. Eight bytes are taken from the buffer at once.
+ */
+class Fnv1a64Hasher implements FileHasher {
+
+    private static final long FNV_INIT = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private long hash = FNV_INIT;
+
+    @Override
+    public int length() {
+        return 8;
+    }
+
+    @Override
+    public void reset() {
+        hash = FNV_INIT;
+    }
+
+    @Override
+    public void update(ByteBuffer buffer) {
+        long h = hash;
+        int position = buffer.position();
+        int limit = buffer.limit();
+        boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+        for (; position + 8 <= limit; position += 8) {
+            long word = buffer.getLong(position);
+            if (!bigEndian) {
+                word = Long.reverseBytes(word);
+            }
+            h = (h ^ (word >>> 56)) * FNV_PRIME;
+            h = (h ^ ((word >>> 48) & 0xff)) * FNV_PRIME;
+            h = (h ^ ((word >>> 40) & 0xff)) * FNV_PRIME;
+            h = (h ^ ((word >>> 32) & 0xff)) * FNV_PRIME;
+            h = (h ^ ((word >>> 24) & 0xff)) * FNV_PRIME;
+            h = (h ^ ((word >>> 16) & 0xff)) * FNV_PRIME;
+            h = (h ^ ((word >>> 8) & 0xff)) * FNV_PRIME;
+            h = (h ^ (word & 0xff)) * FNV_PRIME;
+        }
+        for (; position < limit; position++) {
+            h = (h ^ (buffer.get(position) & 0xff)) * FNV_PRIME;
+        }
+        buffer.position(limit);
+        hash = h;
+    }
+
+    /**
+     * Xor with a zero byte changes nothing, so <tt>count</tt> zero bytes multiply the hash by
+     * the prime to the power of <tt>count</tt>, computed by repeated squaring.
+     */
+    @Override
+    public void updateZeros(long count) {
+        long h = hash;
+        long power = FNV_PRIME;
+        for (; count > 0; count >>>= 1) {
+            if ((count & 1) != 0) {
+                h *= power;
+            }
+            power *= power;
+        }
+        hash = h;
+    }
+
+    @Override
+    public boolean foldsZeros() {
+        return true;
+    }
+
+    @Override
+    public void digest(byte[] digest) {
+        Digests.putLong(digest, hash);
+    }
+}
@@ -0,0 +1,39 @@
+package ru.ifmo.ctddev.maltsev.walk;
+
+import java.util.function.Supplier;
+
+/**
+ * Hash algorithms that can be selected with the <tt>-hash</tt> option of {@link RecursiveWalk}.
+ */
+public enum HashAlgorithm {
+    FNV1("fnv1", Fnv1Hasher::new),
+    FNV1A64("fnv1a64", Fnv1a64Hasher::new),
+    XXHASH64("xxhash64", XxHash64Hasher::new),
+    CRC32C("crc32c", Crc32cHasher::new),
+    SHA256("sha256", Sha256Hasher::new);
+
+    private final String id;
+    private final Supplier<FileHasher> factory;
+
+    HashAlgorithm(String id, Supplier<FileHasher> factory) {
+        this.id = id;
+        this.factory = factory;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public FileHasher newHasher() {
+        return factory.get();
+    }
+
+    public static HashAlgorithm forId(String id) {
+        for (HashAlgorithm algorithm : values()) {
+            if (algorithm.id.equals(id)) {
+                return algorithm;
+            }
+        }
+        throw new IllegalArgumentException("Unknown hash algorithm " + id);
+    }
+}
@@ -0,0 +1,253 @@
+package ru.ifmo.ctddev.maltsev.walk;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent cache of file hashes between runs of {@link RecursiveWalk}.
+ * <p>
+ * Only regular files are cached: attributes of links and special files do not change with the content
+ * which is hashed. A file is taken from the cache only if its absolute normalized path, size, modification
+ * time and file key (inode) are the same as when it was hashed. File systems without file keys, such as
+ * on Windows, store <tt>0</tt> instead, so a file replaced by a copy with the same size and modification
+ * time is not noticed there; this is reported once per run. The cache file is a sorted table which is read at once
+ * and searched in place, without parsing records:
+ * <pre>
+ *     int magic, int algorithm, int count, int[count] record offsets (sorted by UTF-8 path),
+ *     records: int pathLength, byte[pathLength] path, long size, long mtime, long fileKey, byte[] digest
+ * </pre>
+ * A cache written with another hash algorithm is ignored. Only files visited by the current run
+ * are written back.
+ */
+class HashCache {
+
+    private static final int MAGIC = 0x52574332;
+    private static final int HEADER_LENGTH = 12;
+
+    private final Path file;
+    private final HashAlgorithm algorithm;
+    private final int digestLength;
+    private final ByteBuffer table;
+    private final int count;
+    private final List<Entry> visited = new ArrayList<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicBoolean noFileKeyReported = new AtomicBoolean();
+
+    private static class Entry {
+        final byte[] path;
+        final long size;
+        final long modified;
+        final long fileKey;
+        final byte[] hash;
+
+        Entry(byte[] path, long size, long modified, long fileKey, byte[] hash) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.fileKey = fileKey;
+            this.hash = hash;
+        }
+    }
+
+    private HashCache(Path file, HashAlgorithm algorithm, ByteBuffer table) {
+        this.file = file;
+        this.algorithm = algorithm;
+        this.digestLength = algorithm.newHasher().length();
+        this.table = table;
+        this.count = table.remaining() < HEADER_LENGTH ? 0 : table.getInt(8);
+    }
+
+    /**
+     * Opens the cache stored in <tt>file</tt>. A missing or damaged file gives an empty cache.
+     */
+    static HashCache open(Path file, HashAlgorithm algorithm) {
+        // Read rather than mapped, so the file can be replaced by save() on any platform
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer table = ByteBuffer.allocate((int) Math.min(channel.size(), Integer.MAX_VALUE - 8));
+            while (table.hasRemaining() && channel.read(table) >= 0) {
+                // Read the whole file
+            }
+            table.flip();
+            if (isValid(table, algorithm.newHasher().length())) {
+                if (table.getInt(4) == algorithm.id().hashCode()) {
+                    return new HashCache(file, algorithm, table);
+                }
+                System.err.println("Ignoring hash cache " + file + " written with another hash algorithm");
+            } else {
+                System.err.println("Ignoring damaged hash cache " + file);
+            }
+        } catch (NoSuchFileException e) {
+            // First run, nothing is cached yet
+        } catch (IOException e) {
+            System.err.println(e.getMessage() + " (Failed to read hash cache)");
+        }
+        return new HashCache(file, algorithm, ByteBuffer.allocate(0));
+    }
+
+    /**
+     * Checks the header and that all records lie inside <tt>table</tt>, so that searches can not fail.
+     */
+    private static boolean isValid(ByteBuffer table, int digestLength) {
+        if (table.remaining() < HEADER_LENGTH || table.getInt(0) != MAGIC) {
+            return false;
+        }
+        int count = table.getInt(8);
+        if (count < 0 || HEADER_LENGTH + 4L * count > table.remaining()) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            int record = table.getInt(HEADER_LENGTH + 4 * i);
+            if (record < HEADER_LENGTH + 4L * count || record > table.remaining() - 4) {
+                return false;
+            }
+            int pathLength = table.getInt(record);
+            if (pathLength < 0 || record + 4L + pathLength + 24 + digestLength > table.remaining()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns cached hash of the file or computes it with <tt>hasher</tt> and remembers the result.
+     * Files which are not regular are always hashed.
+     */
+    byte[] hash(Path path, BasicFileAttributes attributes, PathHasher hasher) throws IOException {
+        if (!attributes.isRegularFile()) {
+            return hasher.hash(path, attributes);
+        }
+        // Relative paths from runs in other directories must not match
+        byte[] key = path.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8);
+        long size = attributes.size();
+        long modified = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        long fileKey = attributes.fileKey() == null ? 0 : attributes.fileKey().hashCode();
+        if (attributes.fileKey() == null && noFileKeyReported.compareAndSet(false, true)) {
+            System.err.println("File keys are not supported, hash cache checks only paths, sizes and modification times");
+        }
+
+        byte[] hash = null;
+        int record = find(key);
+        if (record >= 0) {
+            int position = record + 4 + key.length;
+            if (table.getLong(position) == size && table.getLong(position + 8) == modified
+                    && table.getLong(position + 16) == fileKey) {
+                hash = new byte[digestLength];
+                for (int i = 0; i < digestLength; i++) {
+                    hash[i] = table.get(position + 24 + i);
+                }
+            }
+        }
+        if (hash == null) {
+            misses.incrementAndGet();
+            hash = hasher.hash(path, attributes);
+        } else {
+            hits.incrementAndGet();
+        }
+        synchronized (visited) {
+            visited.add(new Entry(key, size, modified, fileKey, hash));
+        }
+        return hash;
+    }
+
+    private int find(byte[] key) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int record = table.getInt(HEADER_LENGTH + 4 * mid);
+            int cmp = compareAt(record, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return record;
+            }
+        }
+        return -1;
+    }
+
+    private int compareAt(int record, byte[] key) {
+        int length = table.getInt(record);
+        for (int i = 0; i < Math.min(length, key.length); i++) {
+            int cmp = Integer.compare(table.get(record + 4 + i) & 0xff, key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            int cmp = Integer.compare(a[i] & 0xff, b[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(a.length, b.length);
+    }
+
+    long hits() {
+        return hits.get();
+    }
+
+    long misses() {
+        return misses.get();
+    }
+
+    /**
+     * Writes hashes of all visited files, replacing the previous cache file.
+     */
+    void save() throws IOException {
+        List<Entry> entries;
+        synchronized (visited) {
+            entries = new ArrayList<>(visited);
+        }
+        entries.sort((a, b) -> compare(a.path, b.path));
+        List<Entry> unique = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            if (unique.isEmpty() || compare(unique.get(unique.size() - 1).path, entry.path) != 0) {
+                unique.add(entry);
+            }
+        }
+
+        Path parent = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(algorithm.id().hashCode());
+                out.writeInt(unique.size());
+                int offset = HEADER_LENGTH + 4 * unique.size();
+                for (Entry entry : unique) {
+                    out.writeInt(offset);
+                    offset += 4 + entry.path.length + 24 + digestLength;
+                }
+                for (Entry entry : unique) {
+                    out.writeInt(entry.path.length);
+                    out.write(entry.path);
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.modified);
+                    out.writeLong(entry.fileKey);
+                    out.write(entry.hash);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
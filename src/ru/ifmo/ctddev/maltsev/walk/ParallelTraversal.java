@@ -0,0 +1,263 @@
+package ru.ifmo.ctddev.maltsev.walk;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replacement of {@link Files#walkFileTree(Path, FileVisitor)} which lists directories in parallel.
+ * <p>
+ * Every directory is listed, and the attributes of its entries are read, by a separate task on a
+ * {@link ForkJoinPool}, which forks tasks for subdirectories as soon as they are found, so idle threads
+ * steal whole subtrees. The calling thread replays the listings to the visitor depth-first in directory
+ * stream order, waiting for a listing only when it is reached. So the visitor gets exactly the calls
+ * that <tt>walkFileTree</tt> would make for an unchanged tree, including failures, and links are not
+ * followed. Subdirectories are listed ahead only while less than {@value #LOOKAHEAD} entries are waiting
+ * for the visitor, later ones are listed when they are reached, and entries are released as soon as they
+ * are visited. So memory is bounded by the lookahead and the largest directories on the current path,
+ * not by the size of the tree.
+ */
+class ParallelTraversal implements AutoCloseable {
+
+    private static final int LOOKAHEAD = 1 << 14;
+    private static final boolean POSIX = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+
+    private final ForkJoinPool pool;
+    // Entries listed and not yet visited or discarded
+    private final AtomicInteger buffered = new AtomicInteger();
+
+    private static class Entry {
+        final Path file;
+        final BasicFileAttributes attributes;
+        final IOException error;
+
+        Entry(Path file, BasicFileAttributes attributes, IOException error) {
+            this.file = file;
+            this.attributes = attributes;
+            this.error = error;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class Listing extends RecursiveAction {
+        final Path directory;
+        final BasicFileAttributes attributes;
+        final List<Object> entries = new ArrayList<>();
+        boolean forked;
+        // Forked, but not listed since too many entries were waiting when it started
+        boolean deferred;
+        IOException openError;
+        IOException readError;
+
+        Listing(Path directory, BasicFileAttributes attributes) {
+            this.directory = directory;
+            this.attributes = attributes;
+        }
+
+        @Override
+        protected void compute() {
+            if (forked && buffered.get() >= LOOKAHEAD) {
+                deferred = true;
+                return;
+            }
+            DirectoryStream<Path> stream;
+            try {
+                stream = Files.newDirectoryStream(directory);
+            } catch (IOException e) {
+                openError = e;
+                return;
+            }
+            try {
+                for (Path file : stream) {
+                    BasicFileAttributes attributes;
+                    buffered.incrementAndGet();
+                    try {
+                        attributes = readAttributes(file);
+                    } catch (IOException e) {
+                        entries.add(new Entry(file, null, e));
+                        continue;
+                    }
+                    if (attributes.isDirectory()) {
+                        Listing listing = new Listing(file, attributes);
+                        if (buffered.get() < LOOKAHEAD) {
+                            listing.forked = true;
+                            listing.fork();
+                        }
+                        entries.add(listing);
+                    } else {
+                        entries.add(new Entry(file, attributes, null));
+                    }
+                }
+            } catch (DirectoryIteratorException e) {
+                readError = e.getCause();
+            }
+            try {
+                stream.close();
+            } catch (IOException e) {
+                if (readError == null) {
+                    readError = e;
+                } else {
+                    readError.addSuppressed(e);
+                }
+            }
+        }
+    }
+
+    private static class Frame {
+        final Listing listing;
+        int next;
+        boolean skipped;
+
+        Frame(Listing listing) {
+            this.listing = listing;
+        }
+    }
+
+    ParallelTraversal(int threads) {
+        pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * Walks the tree rooted at <tt>start</tt> like {@link Files#walkFileTree(Path, FileVisitor)} does.
+     */
+    void walkFileTree(Path start, FileVisitor<? super Path> visitor) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = readAttributes(start);
+        } catch (IOException e) {
+            visitor.visitFileFailed(start, e);
+            return;
+        }
+        if (!attributes.isDirectory()) {
+            visitor.visitFile(start, attributes);
+            return;
+        }
+        Deque<Frame> stack = new ArrayDeque<>();
+        try {
+            if (enter(new Listing(start, attributes), visitor, stack) == FileVisitResult.TERMINATE) {
+                return;
+            }
+            while (!stack.isEmpty()) {
+                Frame top = stack.peek();
+                if (top.skipped || top.next == top.listing.entries.size()) {
+                    stack.pop();
+                    discard(top);
+                    top.listing.entries.clear();
+                    if (visitor.postVisitDirectory(top.listing.directory, top.skipped ? null : top.listing.readError)
+                            == FileVisitResult.TERMINATE) {
+                        return;
+                    }
+                    continue;
+                }
+                // Visited entries are released, so that the walk keeps only the current path
+                Object next = top.listing.entries.set(top.next++, null);
+                buffered.decrementAndGet();
+                FileVisitResult result;
+                if (next instanceof Listing) {
+                    result = enter((Listing) next, visitor, stack);
+                } else {
+                    Entry entry = (Entry) next;
+                    result = entry.error != null
+                            ? visitor.visitFileFailed(entry.file, entry.error)
+                            : visitor.visitFile(entry.file, entry.attributes);
+                }
+                if (result == FileVisitResult.TERMINATE) {
+                    return;
+                }
+                if (result == FileVisitResult.SKIP_SIBLINGS) {
+                    top.skipped = true;
+                }
+            }
+        } finally {
+            while (!stack.isEmpty()) {
+                discard(stack.pop());
+            }
+        }
+    }
+
+    /**
+     * Reads POSIX attributes where they are supported: they cost the same and carry permissions.
+     */
+    private static BasicFileAttributes readAttributes(Path file) throws IOException {
+        return POSIX
+                ? Files.readAttributes(file, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS)
+                : Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    }
+
+    /**
+     * Waits for the listing of a directory and visits it, pushing it to <tt>stack</tt> if its entries
+     * are to be visited. Returns how the walk continues in the parent directory.
+     */
+    private FileVisitResult enter(Listing listing, FileVisitor<? super Path> visitor, Deque<Frame> stack)
+            throws IOException {
+        await(listing);
+        if (listing.openError != null) {
+            return visitor.visitFileFailed(listing.directory, listing.openError);
+        }
+        FileVisitResult result = visitor.preVisitDirectory(listing.directory, listing.attributes);
+        if (result == FileVisitResult.CONTINUE) {
+            stack.push(new Frame(listing));
+            return result;
+        }
+        discard(new Frame(listing));
+        listing.entries.clear();
+        return result == FileVisitResult.SKIP_SUBTREE ? FileVisitResult.CONTINUE : result;
+    }
+
+    private void await(Listing listing) {
+        if (listing.forked) {
+            listing.join();
+            if (!listing.deferred) {
+                return;
+            }
+            listing.reinitialize();
+            listing.forked = false;
+            listing.deferred = false;
+        }
+        pool.invoke(listing);
+    }
+
+    /**
+     * Releases unvisited entries of the frame, waiting for listings of subdirectories which were forked,
+     * so that their entries are not counted as waiting any more.
+     */
+    private void discard(Frame frame) {
+        Deque<Listing> listings = new ArrayDeque<>();
+        List<Object> entries = frame.listing.entries;
+        for (int i = frame.next; i < entries.size(); i++) {
+            if (entries.get(i) instanceof Listing) {
+                listings.push((Listing) entries.get(i));
+            }
+            entries.set(i, null);
+            buffered.decrementAndGet();
+        }
+        frame.next = entries.size();
+        while (!listings.isEmpty()) {
+            Listing listing = listings.pop();
+            if (listing.forked) {
+                // A deferred listing has no entries and is not listed any more
+                listing.join();
+                for (Object entry : listing.entries) {
+                    if (entry instanceof Listing) {
+                        listings.push((Listing) entry);
+                    }
+                }
+                buffered.addAndGet(-listing.entries.size());
+                listing.entries.clear();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+}
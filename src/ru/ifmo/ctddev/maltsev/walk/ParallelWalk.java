@@ -0,0 +1,147 @@
+package ru.ifmo.ctddev.maltsev.walk;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.BiFunction;
+
+/**
+ * Hashes files found by the walk on several threads.
+ * <p>
+ * The walking thread puts every file both into a bounded work queue, drained by hashing workers,
+ * and into a bounded queue of pending results, drained by a single writer in submission order.
+ * So the output order is exactly the order of the sequential walk.
+ */
+class ParallelWalk implements WalkHandler, AutoCloseable {
+
+    private static final FutureTask<byte[]> STOP = new FutureTask<>(() -> null);
+
+    private final BlockingQueue<FutureTask<byte[]>> tasks;
+    private final BlockingQueue<Pending> pending;
+    private final List<Thread> workers;
+    private final Thread writer;
+    private final BiFunction<Path, BasicFileAttributes, byte[]> hash;
+    private final byte[] failure;
+    private volatile IOException writeError;
+
+    private static class Pending {
+        final String file;
+        final BasicFileAttributes attributes;
+        final Future<byte[]> hash;
+
+        Pending(String file, BasicFileAttributes attributes, Future<byte[]> hash) {
+            this.file = file;
+            this.attributes = attributes;
+            this.hash = hash;
+        }
+    }
+
+    ParallelWalk(int threads, int queueCapacity, ResultSink sink,
+                 BiFunction<Path, BasicFileAttributes, byte[]> hash, int digestLength) {
+        this.hash = hash;
+        this.failure = new byte[digestLength];
+        tasks = new ArrayBlockingQueue<>(queueCapacity);
+        pending = new ArrayBlockingQueue<>(queueCapacity);
+        workers = new ArrayList<>(threads);
+        Runnable worker = () -> {
+            try {
+                while (!Thread.interrupted()) {
+                    tasks.take().run();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        for (int i = 0; i < threads; i++) {
+            workers.add(new Thread(worker, "walk-hasher-" + i));
+            workers.get(i).start();
+        }
+        writer = new Thread(() -> {
+            try {
+                Pending result;
+                while ((result = pending.take()).hash != STOP) {
+                    byte[] digest = hashOf(result);
+                    if (writeError == null) {
+                        try {
+                            sink.write(result.file, result.attributes, digest);
+                        } catch (IOException e) {
+                            // Keep draining the queue so that the walking thread is not blocked
+                            writeError = e;
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "walk-writer");
+        writer.start();
+    }
+
+    private byte[] hashOf(Pending result) throws InterruptedException {
+        try {
+            return result.hash.get();
+        } catch (ExecutionException e) {
+            System.err.println(e.getCause().getMessage() + " (Failed to hash " + result.file + ")");
+            return failure;
+        }
+    }
+
+    @Override
+    public void file(Path file, BasicFileAttributes attributes) throws InterruptedException {
+        checkWriteError();
+        FutureTask<byte[]> task = new FutureTask<>(() -> hash.apply(file, attributes));
+        pending.put(new Pending(file.toString(), attributes, task));
+        tasks.put(task);
+    }
+
+    @Override
+    public void failed(String file) throws InterruptedException {
+        checkWriteError();
+        FutureTask<byte[]> zero = new FutureTask<>(() -> failure);
+        zero.run();
+        pending.put(new Pending(file, null, zero));
+    }
+
+    private void checkWriteError() {
+        if (writeError != null) {
+            throw new UncheckedIOException(writeError);
+        }
+    }
+
+    /**
+     * Waits until every submitted file is written and stops all threads. If the current thread is
+     * interrupted, stops them without writing the rest and leaves the current thread interrupted.
+     *
+     * @throws UncheckedIOException if some result could not be written
+     */
+    @Override
+    public void close() {
+        try {
+            pending.put(new Pending(null, null, STOP));
+            writer.join();
+        } catch (InterruptedException e) {
+            writer.interrupt();
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Thread t : workers) {
+                t.interrupt();
+            }
+            try {
+                for (Thread t : workers) {
+                    t.join();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        checkWriteError();
+    }
+}
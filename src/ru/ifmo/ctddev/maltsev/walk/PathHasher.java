@@ -0,0 +1,13 @@
+package ru.ifmo.ctddev.maltsev.walk;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Computes the hash of a single file found by the walk.
+ */
+interface PathHasher {
+
+    byte[] hash(Path path, BasicFileAttributes attributes) throws IOException;
+}
@@ -0,0 +1,124 @@
+package ru.ifmo.ctddev.maltsev.walk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads lines of a UTF-8 input list one at a time.
+ * <p>
+ * The channel is read into a large direct buffer and a line is decoded straight from it, so only
+ * lines crossing the end of the buffer are copied. Line terminators and malformed input are handled
+ * like {@link java.io.BufferedReader#readLine()} over an {@link java.io.InputStreamReader} does.
+ */
+class PathListReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer carry = ByteBuffer.allocate(256);
+    private CharBuffer chars = CharBuffer.allocate(256);
+    private boolean skipLineFeed;
+    private boolean eof;
+
+    PathListReader(ReadableByteChannel channel) {
+        this.channel = channel;
+        buffer.flip();
+    }
+
+    /**
+     * Returns the next line without its terminator or <tt>null</tt> at the end of input.
+     */
+    String readLine() throws IOException {
+        carry.clear();
+        while (true) {
+            if (!buffer.hasRemaining() && !fill()) {
+                return carry.position() == 0 ? null : decode((ByteBuffer) carry.flip());
+            }
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (buffer.get(buffer.position()) == '\n') {
+                    buffer.get();
+                }
+                continue;
+            }
+            int start = buffer.position();
+            int limit = buffer.limit();
+            for (int i = start; i < limit; i++) {
+                byte b = buffer.get(i);
+                if (b == '\n' || b == '\r') {
+                    skipLineFeed = b == '\r';
+                    String line;
+                    buffer.limit(i);
+                    if (carry.position() == 0) {
+                        line = decode(buffer);
+                    } else {
+                        append(buffer);
+                        line = decode((ByteBuffer) carry.flip());
+                    }
+                    buffer.limit(limit).position(i + 1);
+                    return line;
+                }
+            }
+            append(buffer);
+        }
+    }
+
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        buffer.clear();
+        int read;
+        do {
+            read = channel.read(buffer);
+        } while (read == 0);
+        buffer.flip();
+        eof = read < 0;
+        return buffer.hasRemaining();
+    }
+
+    private void append(ByteBuffer bytes) {
+        if (carry.remaining() < bytes.remaining()) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * carry.capacity(), carry.position() + bytes.remaining()));
+            carry.flip();
+            larger.put(carry);
+            carry = larger;
+        }
+        carry.put(bytes);
+    }
+
+    private String decode(ByteBuffer bytes) {
+        decoder.reset();
+        chars.clear();
+        while (true) {
+            CoderResult result = decoder.decode(bytes, chars, true);
+            if (result.isUnderflow()) {
+                result = decoder.flush(chars);
+            }
+            if (result.isUnderflow()) {
+                break;
+            }
+            CharBuffer larger = CharBuffer.allocate(2 * chars.capacity() + bytes.remaining());
+            chars.flip();
+            larger.put(chars);
+            chars = larger;
+        }
+        return chars.flip().toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -1,77 +1,254 @@
 package ru.ifmo.ctddev.maltsev.walk;
 
 import java.io.*;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.BiFunction;
 
 public class RecursiveWalk {
 
-    private static final long FNV_MOD = (1L << 32);
-    private static final long FNV_INIT = 2166136261L;
-    private static final long FNV_PRIME = 16777619;
-    private static final int REQUIRED_BITS = (1 << 8) - 1;
-    private static final int BUFFER_LENGTH = 4096;
-
     public static void main(String args[]) {
+        WalkOptions options;
         try {
-            FileInputStream fileInputStream = new FileInputStream(args[0]);
-            FileOutputStream fileOutputStream = new FileOutputStream(args[1]);
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(fileInputStream, StandardCharsets.UTF_8));
-                PrintWriter pw = new PrintWriter(new OutputStreamWriter(fileOutputStream, StandardCharsets.UTF_8 ))) {
-                String pathString;
-                while ((pathString = br.readLine()) != null) {
-                    processPath(Paths.get(pathString), pw);
+            options = WalkOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+        WalkStats stats = new WalkStats();
+        if (options.statsInterval > 0) {
+            stats.start(options.statsInterval);
+        }
+        HashCache cache = options.cache == null ? null : HashCache.open(Paths.get(options.cache), options.algorithm);
+        TextResultSink chunkSink;
+        try {
+            chunkSink = options.chunks == null ? null : new TextResultSink(new FileOutputStream(options.chunks).getChannel(), stats);
+        } catch (FileNotFoundException e) {
+            System.err.println(e.getMessage() + " (Failed to create chunk output)");
+            return;
+        }
+        ParallelTraversal traversal = options.walkThreads > 0 ? new ParallelTraversal(options.walkThreads) : null;
+        ThreadLocal<Digester> digesters = ThreadLocal.withInitial(() -> new Digester(
+                options.algorithm.newHasher(),
+                options.mmapThreshold,
+                options.ioDepth,
+                chunkSink == null ? null : new Chunker(options.algorithm.newHasher(), chunkSink, options.chunkSize),
+                stats));
+        byte[] failure = new byte[options.algorithm.newHasher().length()];
+        BiFunction<Path, BasicFileAttributes, byte[]> hash = cache == null
+                ? (file, attributes) -> hashOrFailure(digesters.get(), file, attributes, failure, stats)
+                : (file, attributes) -> hashOrFailure((f, a) -> cache.hash(f, a, digesters.get()), file, attributes,
+                        failure, stats);
+        try {
+            FileInputStream fileInputStream = new FileInputStream(options.input);
+            FileOutputStream fileOutputStream = new FileOutputStream(options.output);
+            try (PathListReader br = new PathListReader(fileInputStream.getChannel());
+                ResultSink sink = options.binary
+                        ? new BinaryResultSink(fileOutputStream.getChannel(), options.algorithm, stats)
+                        : new TextResultSink(fileOutputStream.getChannel(), stats)) {
+                if (options.duplicates) {
+                    DuplicateFinder finder = new DuplicateFinder();
+                    walk(br, finder, options.uniqueRoots, traversal, stats);
+                    try {
+                        // Options do not allow the binary format in this mode
+                        finder.find(options.threads, digesters, (TextResultSink) sink);
+                    } catch (InterruptedException e) {
+                        System.err.println("Search for duplicates was interrupted");
+                    }
+                } else if (options.threads > 1) {
+                    try (ParallelWalk parallelWalk = new ParallelWalk(options.threads, options.queueCapacity, sink,
+                            hash, failure.length)) {
+                        walk(br, options.binary ? withPosixAttributes(parallelWalk) : parallelWalk,
+                                options.uniqueRoots, traversal, stats);
+                    }
+                    if (Thread.interrupted()) {
+                        System.err.println("Walk was interrupted");
+                    }
+                } else {
+                    WalkHandler handler = new WalkHandler() {
+                        @Override
+                        public void file(Path file, BasicFileAttributes attributes) {
+                            write(sink, file.toString(), attributes, hash.apply(file, attributes));
+                        }
+
+                        @Override
+                        public void failed(String file) {
+                            write(sink, file, null, failure);
+                        }
+                    };
+                    walk(br, options.binary ? withPosixAttributes(handler) : handler,
+                            options.uniqueRoots, traversal, stats);
                 }
+            } catch (UncheckedIOException e) {
+                System.err.println(e.getCause().getMessage() + " (Failed to write results)");
             } catch (IOException e) {
                 System.err.println(e.getMessage());
             }
-        } catch (ArrayIndexOutOfBoundsException e) {
-            System.err.println("Not enough arguments. Expected 2, found " + args.length);
         } catch (FileNotFoundException e) {
             System.err.println(e.getMessage());
         }
+        if (chunkSink != null) {
+            try {
+                chunkSink.close();
+            } catch (IOException e) {
+                System.err.println(e.getMessage() + " (Failed to write chunks)");
+            }
+        }
+        if (traversal != null) {
+            traversal.close();
+        }
+        try {
+            stats.stop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (cache != null) {
+            System.err.println("Hash cache: " + cache.hits() + " hits, " + cache.misses() + " misses");
+            try {
+                cache.save();
+            } catch (IOException e) {
+                System.err.println(e.getMessage() + " (Failed to write hash cache)");
+            }
+        }
     }
 
-    private static void processPath(Path path, PrintWriter pw) {
-        try {
-            Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
-                    pw.format("%08x %s\n", hashFNV(file), file.toString());
-                    return FileVisitResult.CONTINUE;
+    private static void walk(PathListReader br, WalkHandler handler, boolean uniqueRoots,
+                             ParallelTraversal traversal, WalkStats stats) throws IOException {
+        Set<Path> walkedDirectories = uniqueRoots ? new HashSet<>() : null;
+        String pathString;
+        while ((pathString = br.readLine()) != null && !Thread.currentThread().isInterrupted()) {
+            Path path;
+            try {
+                path = Paths.get(pathString);
+            } catch (InvalidPathException e) {
+                System.err.println(e.getMessage() + " (Invalid path)");
+                stats.failed();
+                try {
+                    handler.failed(pathString);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                continue;
+            }
+            if (walkedDirectories == null || !insideWalked(path, walkedDirectories)) {
+                processPath(path, handler, walkedDirectories, traversal, stats);
+            }
+        }
+    }
+
+    private static boolean insideWalked(Path path, Set<Path> walkedDirectories) {
+        for (Path p = path.toAbsolutePath().normalize(); p != null; p = p.getParent()) {
+            if (walkedDirectories.contains(p)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Walks the tree rooted at <tt>path</tt>, with <tt>traversal</tt> if it is not <tt>null</tt>.
+     * If <tt>walkedDirectories</tt> is not <tt>null</tt>, subtrees already walked from other roots
+     * are skipped and this root is added to them.
+     */
+    private static void processPath(Path path, WalkHandler handler, Set<Path> walkedDirectories,
+                                    ParallelTraversal traversal, WalkStats stats) {
+        FileVisitor<Path> visitor = new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                if (walkedDirectories != null) {
+                    Path normalized = dir.toAbsolutePath().normalize();
+                    if (!dir.equals(path) && walkedDirectories.contains(normalized)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    if (dir.equals(path)) {
+                        walkedDirectories.add(normalized);
+                    }
                 }
+                return FileVisitResult.CONTINUE;
+            }
 
-                public FileVisitResult visitFileFailed(Path file, IOException e) {
-                    pw.format("%08x %s\n", 0, file.toString());
-                    System.err.println(e.getMessage() + "(Failed to process this path)");
-                    return FileVisitResult.CONTINUE;
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                stats.fileVisited();
+                try {
+                    handler.file(file, attributes);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return FileVisitResult.TERMINATE;
                 }
-            });
+                return FileVisitResult.CONTINUE;
+            }
+
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                stats.failed();
+                try {
+                    handler.failed(file.toString());
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return FileVisitResult.TERMINATE;
+                }
+                System.err.println(e.getMessage() + "(Failed to process this path)");
+                return FileVisitResult.CONTINUE;
+            }
+        };
+        try {
+            if (traversal == null) {
+                Files.walkFileTree(path, visitor);
+            } else {
+                traversal.walkFileTree(path, visitor);
+            }
         } catch (IOException e) {
             System.err.println(e.getMessage());
         }
     }
 
-    private static long hashFNV(Path path) {
-        long hashSum = FNV_INIT;
-        try {
-            InputStream input = new FileInputStream(path.toFile());
-            byte[] b = new byte[BUFFER_LENGTH];
-            int size = 0;
-            while ((size = input.read(b, 0, b.length)) >= 0) {
-                for (int i = 0; i < size; i++) {
-                    hashSum = (hashSum * FNV_PRIME) % FNV_MOD ^ ((long) b[i] & REQUIRED_BITS);
+    /**
+     * Gives POSIX attributes to <tt>handler</tt>, so that binary results have permissions in their modes.
+     * Attributes from {@link ParallelTraversal} already are POSIX, otherwise the file is stat'ed again.
+     */
+    private static WalkHandler withPosixAttributes(WalkHandler handler) {
+        return new WalkHandler() {
+            @Override
+            public void file(Path file, BasicFileAttributes attributes) throws InterruptedException {
+                if (!(attributes instanceof PosixFileAttributes)) {
+                    try {
+                        attributes = Files.readAttributes(file, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException | UnsupportedOperationException e) {
+                        // Keep the basic attributes, the mode will only have the file type
+                    }
                 }
+                handler.file(file, attributes);
             }
-        } catch (FileNotFoundException e) {
+
+            @Override
+            public void failed(String file) throws InterruptedException {
+                handler.failed(file);
+            }
+        };
+    }
+
+    private static void write(ResultSink sink, String file, BasicFileAttributes attributes, byte[] digest) {
+        try {
+            sink.write(file, attributes, digest);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] hashOrFailure(PathHasher hasher, Path file, BasicFileAttributes attributes, byte[] failure,
+                                        WalkStats stats) {
+        try {
+            return hasher.hash(file, attributes);
+        } catch (FileNotFoundException | NoSuchFileException e) {
             System.err.println(e.getMessage() + " (No such file found)");
-            return 0;
         } catch (IOException e) {
             System.err.println(e.getMessage() + " (Failed to read from file)");
-            return 0;
         }
-        return hashSum;
+        stats.failed();
+        return failure;
     }
 }
 
@@ -0,0 +1,16 @@
+package ru.ifmo.ctddev.maltsev.walk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Destination of walk results. Used by one thread at a time.
+ */
+interface ResultSink extends Closeable {
+
+    /**
+     * Writes the result for a file, <tt>attributes</tt> are <tt>null</tt> if the file could not be walked.
+     */
+    void write(String file, BasicFileAttributes attributes, byte[] digest) throws IOException;
+}
@@ -0,0 +1,46 @@
+package ru.ifmo.ctddev.maltsev.walk;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 through {@link MessageDigest}, which every Java platform is required to provide.
+ */
+class Sha256Hasher implements FileHasher {
+
+    private final MessageDigest messageDigest;
+
+    Sha256Hasher() {
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+
+    @Override
+    public int length() {
+        return 32;
+    }
+
+    @Override
+    public void reset() {
+        messageDigest.reset();
+    }
+
+    @Override
+    public void update(ByteBuffer buffer) {
+        messageDigest.update(buffer);
+    }
+
+    @Override
+    public void digest(byte[] digest) {
+        try {
+            messageDigest.digest(digest, 0, 32);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
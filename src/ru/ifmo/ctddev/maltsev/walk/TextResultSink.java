@@ -0,0 +1,140 @@
+package ru.ifmo.ctddev.maltsev.walk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Writes <tt>hex-digest path</tt> lines in UTF-8.
+ * <p>
+ * Lines are encoded by hand into a reusable direct buffer which is written to the channel
+ * only when it is full, so a line costs no formatting, boxing or intermediate strings.
+ */
+class TextResultSink implements ResultSink {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final byte[] HEX = {
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+    };
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final WalkStats stats;
+
+    /**
+     * @param stats receives the time of every write to the channel
+     */
+    TextResultSink(WritableByteChannel channel, WalkStats stats) {
+        this.channel = channel;
+        this.stats = stats;
+    }
+
+    @Override
+    public void write(String file, BasicFileAttributes attributes, byte[] digest) throws IOException {
+        write(file, digest);
+    }
+
+    void write(String file, byte[] digest) throws IOException {
+        ensure(2 * digest.length + 1);
+        for (byte b : digest) {
+            buffer.put(HEX[(b >>> 4) & 0xf]);
+            buffer.put(HEX[b & 0xf]);
+        }
+        buffer.put((byte) ' ');
+        putUtf8(file);
+        ensure(1);
+        buffer.put((byte) '\n');
+    }
+
+    /**
+     * Writes an empty line.
+     */
+    void writeLineBreak() throws IOException {
+        ensure(1);
+        buffer.put((byte) '\n');
+    }
+
+    /**
+     * Writes a <tt>hex-digest offset length path</tt> line describing a chunk of the file.
+     */
+    void writeChunk(Path file, long offset, long length, byte[] digest) throws IOException {
+        ensure(2 * digest.length + 42);
+        for (byte b : digest) {
+            buffer.put(HEX[(b >>> 4) & 0xf]);
+            buffer.put(HEX[b & 0xf]);
+        }
+        buffer.put((byte) ' ');
+        putDecimal(offset);
+        buffer.put((byte) ' ');
+        putDecimal(length);
+        buffer.put((byte) ' ');
+        putUtf8(file.toString());
+        ensure(1);
+        buffer.put((byte) '\n');
+    }
+
+    private void putDecimal(long value) {
+        long power = 1;
+        while (power <= value / 10) {
+            power *= 10;
+        }
+        for (; power > 0; power /= 10) {
+            buffer.put((byte) ('0' + value / power % 10));
+        }
+    }
+
+    /**
+     * Encodes <tt>s</tt> like {@link java.io.OutputStreamWriter} does: unpaired surrogates become '?'.
+     */
+    private void putUtf8(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            ensure(4);
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xc0 | c >>> 6));
+                buffer.put((byte) (0x80 | c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                buffer.put((byte) (0xf0 | codePoint >>> 18));
+                buffer.put((byte) (0x80 | codePoint >>> 12 & 0x3f));
+                buffer.put((byte) (0x80 | codePoint >>> 6 & 0x3f));
+                buffer.put((byte) (0x80 | codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xe0 | c >>> 12));
+                buffer.put((byte) (0x80 | c >>> 6 & 0x3f));
+                buffer.put((byte) (0x80 | c & 0x3f));
+            }
+        }
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        long time = System.nanoTime();
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        stats.flushed(System.nanoTime() - time);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package ru.ifmo.ctddev.maltsev.walk;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Receives files found by {@link RecursiveWalk} in walk order.
+ */
+interface WalkHandler {
+
+    void file(Path file, BasicFileAttributes attributes) throws InterruptedException;
+
+    /**
+     * Called for a file or input line that cannot be walked.
+     */
+    void failed(String file) throws InterruptedException;
+}
@@ -0,0 +1,150 @@
+package ru.ifmo.ctddev.maltsev.walk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Command line of {@link RecursiveWalk}: two positional arguments (input list and output file)
+ * followed by optional <tt>-name value</tt> pairs.
+ */
+class WalkOptions {
+
+    static final String USAGE = "Usage: RecursiveWalk <input> <output>"
+            + " [-threads n] [-queue n] [-mmap-threshold bytes] [-cache file]"
+            + " [-hash fnv1|fnv1a64|xxhash64|crc32c|sha256] [-chunks file] [-chunk-size bytes]"
+            + " [-mode walk|duplicates] [-io-depth n] [-unique-roots] [-stats seconds]"
+            + " [-walk-threads n] [-format text|binary]";
+
+    String input;
+    String output;
+    int threads = 1;
+    int queueCapacity = 1024;
+    long mmapThreshold = 16L << 20;
+    String cache;
+    HashAlgorithm algorithm;
+    String chunks;
+    int chunkSize = 8192;
+    boolean duplicates;
+    int ioDepth;
+    boolean uniqueRoots;
+    int statsInterval;
+    int walkThreads;
+    boolean binary;
+
+    static WalkOptions parse(String[] args) {
+        if (args == null) {
+            throw new IllegalArgumentException("Invalid arguments, not expected null");
+        }
+        WalkOptions options = new WalkOptions();
+        List<String> positional = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i] == null) {
+                throw new IllegalArgumentException("Invalid arguments, not expected null");
+            }
+            if (!args[i].startsWith("-") || args[i].length() == 1) {
+                positional.add(args[i]);
+                continue;
+            }
+            if (args[i].equals("-unique-roots")) {
+                options.uniqueRoots = true;
+                continue;
+            }
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value for option " + args[i]);
+            }
+            options.set(args[i], args[++i]);
+        }
+        if (positional.size() < 2) {
+            throw new IllegalArgumentException("Not enough arguments. Expected 2, found " + positional.size());
+        }
+        if (options.cache != null && options.chunks != null) {
+            throw new IllegalArgumentException("Options -cache and -chunks cannot be used together: cached files are not read");
+        }
+        if (options.duplicates && (options.cache != null || options.chunks != null || options.binary)) {
+            throw new IllegalArgumentException("Options -cache, -chunks and -format binary cannot be used in duplicates mode");
+        }
+        if (options.algorithm == null) {
+            // 32-bit FNV is too weak to compare contents of many files
+            options.algorithm = options.duplicates ? HashAlgorithm.XXHASH64 : HashAlgorithm.FNV1;
+        }
+        options.input = positional.get(0);
+        options.output = positional.get(1);
+        return options;
+    }
+
+    private void set(String name, String value) {
+        switch (name) {
+            case "-threads":
+                threads = positive(name, value);
+                break;
+            case "-queue":
+                queueCapacity = positive(name, value);
+                break;
+            case "-mmap-threshold":
+                mmapThreshold = nonNegative(name, value);
+                break;
+            case "-cache":
+                cache = value;
+                break;
+            case "-hash":
+                algorithm = HashAlgorithm.forId(value);
+                break;
+            case "-chunks":
+                chunks = value;
+                break;
+            case "-chunk-size":
+                chunkSize = positive(name, value);
+                if (Integer.bitCount(chunkSize) != 1 || chunkSize < 64 || chunkSize > (1 << 26)) {
+                    throw new IllegalArgumentException("Option " + name + " expects a power of two between 64 and 2^26");
+                }
+                break;
+            case "-io-depth":
+                ioDepth = (int) Math.min(nonNegative(name, value), 1024);
+                break;
+            case "-format":
+                if (!value.equals("text") && !value.equals("binary")) {
+                    throw new IllegalArgumentException("Unknown format " + value + "\n" + USAGE);
+                }
+                binary = value.equals("binary");
+                break;
+            case "-walk-threads":
+                walkThreads = positive(name, value);
+                break;
+            case "-stats":
+                statsInterval = positive(name, value);
+                break;
+            case "-mode":
+                if (!value.equals("walk") && !value.equals("duplicates")) {
+                    throw new IllegalArgumentException("Unknown mode " + value + "\n" + USAGE);
+                }
+                duplicates = value.equals("duplicates");
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option " + name + "\n" + USAGE);
+        }
+    }
+
+    private static long nonNegative(String name, String value) {
+        try {
+            long result = Long.parseLong(value);
+            if (result < 0) {
+                throw new IllegalArgumentException("Option " + name + " expects a non-negative number, found " + value);
+            }
+            return result;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option " + name + " expects a number, found " + value);
+        }
+    }
+
+    private static int positive(String name, String value) {
+        try {
+            int result = Integer.parseInt(value);
+            if (result <= 0) {
+                throw new IllegalArgumentException("Option " + name + " expects a positive number, found " + value);
+            }
+            return result;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option " + name + " expects a number, found " + value);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package ru.ifmo.ctddev.maltsev.walk;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads results written by <tt>RecursiveWalk -format binary</tt>, see {@link BinaryResultSink} for the format.
+ * <p>
+ * The reader is a cursor: {@link #next()} moves to the next result and the other methods describe the
+ * current one. A whole block is read at once and columns are accessed in place, a path is decoded to a
+ * {@link String} only when {@link #path()} is called, {@link #pathBytes()} gives it without decoding. Run as a program, it prints the results as text:
+ * <pre>
+ *     hex-digest size mtime-nanos octal-mode path
+ * </pre>
+ */
+public class WalkResultReader implements Closeable {
+
+    private final ReadableByteChannel channel;
+    private final int digestLength;
+    private final String algorithm;
+    private ByteBuffer block = ByteBuffer.allocate(1 << 16);
+    private int count;
+    private int index;
+    private int digests;
+    private int sizes;
+    private int mtimes;
+    private int modes;
+    private int pathPosition;
+    private byte[] path = new byte[256];
+    private int pathLength;
+    private String pathString;
+    private boolean end;
+
+    public WalkResultReader(ReadableByteChannel channel) throws IOException {
+        this.channel = channel;
+        ByteBuffer header = readFully(ByteBuffer.allocate(14));
+        if (header.getInt() != BinaryResultSink.MAGIC) {
+            throw new IOException("Not a binary walk result");
+        }
+        int version = header.getInt();
+        if (version != BinaryResultSink.VERSION) {
+            throw new IOException("Unsupported version of binary walk result: " + version);
+        }
+        digestLength = header.getInt();
+        ByteBuffer id = readFully(ByteBuffer.allocate(header.getShort() & 0xffff));
+        algorithm = new String(id.array(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns id of the hash algorithm of the digests, such as <tt>fnv1</tt> or <tt>sha256</tt>.
+     */
+    public String algorithm() {
+        return algorithm;
+    }
+
+    public int digestLength() {
+        return digestLength;
+    }
+
+    /**
+     * Moves to the next result. Returns <tt>false</tt> at the end of results.
+     */
+    public boolean next() throws IOException {
+        if (++index >= count && !readBlock()) {
+            return false;
+        }
+        int shared = readVarint();
+        int rest = readVarint();
+        if (shared > pathLength || rest > block.limit() - pathPosition) {
+            throw new IOException("Damaged binary walk result");
+        }
+        if (path.length < shared + rest) {
+            path = Arrays.copyOf(path, Math.max(2 * path.length, shared + rest));
+        }
+        System.arraycopy(block.array(), pathPosition, path, shared, rest);
+        pathPosition += rest;
+        pathLength = shared + rest;
+        pathString = null;
+        return true;
+    }
+
+    private boolean readBlock() throws IOException {
+        if (end) {
+            return false;
+        }
+        count = readFully(ByteBuffer.allocate(4)).getInt();
+        if (count == 0) {
+            end = true;
+            return false;
+        }
+        ByteBuffer lengths = readFully(ByteBuffer.allocate(4 * BinaryResultSink.COLUMNS));
+        long length = 0;
+        int[] columns = new int[BinaryResultSink.COLUMNS];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = lengths.getInt();
+            length += columns[i];
+        }
+        if (count < 0 || length > Integer.MAX_VALUE || columns[0] != count * digestLength
+                || columns[1] != 8 * count || columns[2] != 8 * count || columns[3] != 4 * count) {
+            throw new IOException("Damaged binary walk result");
+        }
+        if (block.capacity() < length) {
+            block = ByteBuffer.allocate((int) Math.max(length, 2 * block.capacity()));
+        }
+        block.clear().limit((int) length);
+        readFully(block);
+        digests = 0;
+        sizes = digests + columns[0];
+        mtimes = sizes + columns[1];
+        modes = mtimes + columns[2];
+        pathPosition = modes + columns[3];
+        index = 0;
+        return true;
+    }
+
+    private int readVarint() throws IOException {
+        byte[] bytes = block.array();
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (pathPosition >= block.limit()) {
+                break;
+            }
+            byte b = bytes[pathPosition++];
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Damaged binary walk result");
+    }
+
+    private ByteBuffer readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Unexpected end of binary walk result");
+            }
+        }
+        return (ByteBuffer) buffer.flip();
+    }
+
+    /**
+     * Copies the digest of the current result into the first {@link #digestLength()} bytes of <tt>digest</tt>.
+     */
+    public void digest(byte[] digest) {
+        System.arraycopy(block.array(), digests + index * digestLength, digest, 0, digestLength);
+    }
+
+    /**
+     * Returns size of the file, <tt>-1</tt> if it could not be walked.
+     */
+    public long size() {
+        return block.getLong(sizes + 8 * index);
+    }
+
+    /**
+     * Returns modification time in nanoseconds since the epoch.
+     */
+    public long modifiedNanos() {
+        return block.getLong(mtimes + 8 * index);
+    }
+
+    /**
+     * Returns file type and read, write and execute permission bits like <tt>st_mode</tt>.
+     */
+    public int mode() {
+        return block.getInt(modes + 4 * index);
+    }
+
+    /**
+     * Returns an array holding UTF-8 bytes of the path in its first {@link #pathLength()} bytes.
+     * The array is reused by {@link #next()}.
+     */
+    public byte[] pathBytes() {
+        return path;
+    }
+
+    public int pathLength() {
+        return pathLength;
+    }
+
+    public String path() {
+        if (pathString == null) {
+            pathString = new String(path, 0, pathLength, StandardCharsets.UTF_8);
+        }
+        return pathString;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public static void main(String[] args) {
+        if (args == null || args.length != 1 || args[0] == null) {
+            System.err.println("Usage: WalkResultReader <binary result>");
+            return;
+        }
+        try (WalkResultReader reader = new WalkResultReader(FileChannel.open(Paths.get(args[0]), StandardOpenOption.READ));
+             Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))) {
+            byte[] digest = new byte[reader.digestLength()];
+            StringBuilder line = new StringBuilder();
+            while (reader.next()) {
+                reader.digest(digest);
+                line.setLength(0);
+                for (byte b : digest) {
+                    line.append(Character.forDigit((b >>> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+                }
+                line.append(' ').append(reader.size()).append(' ').append(reader.modifiedNanos())
+                        .append(' ').append(Integer.toOctalString(reader.mode())).append(' ').append(reader.path()).append('\n');
+                out.write(line.toString());
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage() + " (Failed to read binary walk result)");
+        }
+    }
+}
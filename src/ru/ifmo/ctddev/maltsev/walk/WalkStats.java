@@ -0,0 +1,240 @@
+package ru.ifmo.ctddev.maltsev.walk;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Progress and throughput counters of a walk.
+ * <p>
+ * Counters are always collected, they cost a few adds per file. Time spent waiting for file data
+ * (<tt>read</tt>) and time spent hashing it (<tt>digest</tt>) are measured separately, so comparing
+ * them tells whether the walk is I/O-bound or CPU-bound. Mapped files are read by page faults
+ * during hashing, so all their time counts as digest time. After {@link #start(int)} the counters
+ * are published as the MBean {@value #OBJECT_NAME} and printed to stderr as
+ * <pre>
+ *     stats elapsed_ms=... files=... failures=... bytes=... mb_s=... avg_mb_s=... read_ms=... read_p50_us=... ...
+ * </pre>
+ */
+public class WalkStats implements WalkStatsMBean {
+
+    static final String OBJECT_NAME = "ru.ifmo.ctddev.maltsev.walk:type=WalkStats";
+
+    private final long started = System.nanoTime();
+    private final LongAdder files = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final Histogram read = new Histogram();
+    private final Histogram digest = new Histogram();
+    private final Histogram write = new Histogram();
+    private volatile double currentRate;
+    private Thread reporter;
+
+    /**
+     * Latency histogram with power-of-two buckets: bucket <tt>i</tt> counts latencies below <tt>2^i</tt> ns.
+     */
+    private static class Histogram {
+        final AtomicLongArray buckets = new AtomicLongArray(64);
+        final LongAdder total = new LongAdder();
+
+        void record(long nanos) {
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(nanos, 0)));
+            total.add(nanos);
+        }
+
+        /**
+         * Returns an upper bound of the given percentile, in microseconds.
+         */
+        long percentile(double percentile) {
+            long count = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                count += buckets.get(i);
+            }
+            long rank = (long) Math.ceil(count * percentile / 100);
+            for (int i = 0; i < buckets.length(); i++) {
+                rank -= buckets.get(i);
+                if (rank <= 0 && count > 0) {
+                    return TimeUnit.NANOSECONDS.toMicros(1L << i);
+                }
+            }
+            return 0;
+        }
+
+        long millis() {
+            return TimeUnit.NANOSECONDS.toMillis(total.sum());
+        }
+    }
+
+    void fileVisited() {
+        files.increment();
+    }
+
+    void failed() {
+        failures.increment();
+    }
+
+    /**
+     * Records a hashed file: its length and time spent reading and digesting it.
+     */
+    void fileHashed(long length, long readNanos, long digestNanos) {
+        bytes.add(length);
+        read.record(readNanos);
+        digest.record(digestNanos);
+    }
+
+    void flushed(long nanos) {
+        write.record(nanos);
+    }
+
+    /**
+     * Registers the MBean and prints a stats line every <tt>interval</tt> seconds until {@link #stop()}.
+     * Registration is done by the reporting thread, so it does not delay the walk.
+     */
+    void start(int interval) {
+        reporter = new Thread(() -> {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name;
+            try {
+                name = new ObjectName(OBJECT_NAME);
+                server.registerMBean(this, name);
+            } catch (JMException e) {
+                System.err.println(e.getMessage() + " (Failed to register stats MBean)");
+                name = null;
+            }
+            try {
+                long lastBytes = 0;
+                long lastTime = started;
+                while (!Thread.interrupted()) {
+                    TimeUnit.SECONDS.sleep(interval);
+                    long now = System.nanoTime();
+                    long total = bytes.sum();
+                    currentRate = megabytesPerSecond(total - lastBytes, now - lastTime);
+                    lastBytes = total;
+                    lastTime = now;
+                    System.err.println(line());
+                }
+            } catch (InterruptedException e) {
+                // Stopped
+            } finally {
+                if (name != null) {
+                    try {
+                        server.unregisterMBean(name);
+                    } catch (JMException e) {
+                        // The JVM is exiting anyway
+                    }
+                }
+            }
+        }, "walk-stats");
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+
+    /**
+     * Stops reporting and prints the final stats line.
+     */
+    void stop() throws InterruptedException {
+        if (reporter != null) {
+            reporter.interrupt();
+            reporter.join();
+            currentRate = getAverageMegabytesPerSecond();
+            System.err.println(line());
+        }
+    }
+
+    String line() {
+        return String.format(Locale.ROOT,
+                "stats elapsed_ms=%d files=%d failures=%d bytes=%d mb_s=%.1f avg_mb_s=%.1f"
+                        + " read_ms=%d read_p50_us=%d read_p99_us=%d"
+                        + " digest_ms=%d digest_p50_us=%d digest_p99_us=%d"
+                        + " write_ms=%d write_p50_us=%d write_p99_us=%d",
+                getElapsedMillis(), getFilesVisited(), getFailures(), getBytesHashed(),
+                getMegabytesPerSecond(), getAverageMegabytesPerSecond(),
+                getReadMillis(), getReadLatencyP50Micros(), getReadLatencyP99Micros(),
+                getDigestMillis(), getDigestLatencyP50Micros(), getDigestLatencyP99Micros(),
+                getWriteMillis(), getWriteLatencyP50Micros(), getWriteLatencyP99Micros());
+    }
+
+    private static double megabytesPerSecond(long bytes, long nanos) {
+        return nanos <= 0 ? 0 : bytes / (double) (1 << 20) / (nanos / 1e9);
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+    }
+
+    @Override
+    public long getFilesVisited() {
+        return files.sum();
+    }
+
+    @Override
+    public long getBytesHashed() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public double getMegabytesPerSecond() {
+        return currentRate;
+    }
+
+    @Override
+    public double getAverageMegabytesPerSecond() {
+        return megabytesPerSecond(bytes.sum(), System.nanoTime() - started);
+    }
+
+    @Override
+    public long getReadMillis() {
+        return read.millis();
+    }
+
+    @Override
+    public long getDigestMillis() {
+        return digest.millis();
+    }
+
+    @Override
+    public long getWriteMillis() {
+        return write.millis();
+    }
+
+    @Override
+    public long getReadLatencyP50Micros() {
+        return read.percentile(50);
+    }
+
+    @Override
+    public long getReadLatencyP99Micros() {
+        return read.percentile(99);
+    }
+
+    @Override
+    public long getDigestLatencyP50Micros() {
+        return digest.percentile(50);
+    }
+
+    @Override
+    public long getDigestLatencyP99Micros() {
+        return digest.percentile(99);
+    }
+
+    @Override
+    public long getWriteLatencyP50Micros() {
+        return write.percentile(50);
+    }
+
+    @Override
+    public long getWriteLatencyP99Micros() {
+        return write.percentile(99);
+    }
+}
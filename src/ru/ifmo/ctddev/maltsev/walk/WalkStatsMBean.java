@@ -0,0 +1,41 @@
+package ru.ifmo.ctddev.maltsev.walk;
+
+/**
+ * Management interface of {@link WalkStats}. Latencies are per file for reading and digesting
+ * and per buffer flush for writing.
+ */
+public interface WalkStatsMBean {
+
+    long getElapsedMillis();
+
+    long getFilesVisited();
+
+    long getBytesHashed();
+
+    long getFailures();
+
+    /**
+     * Throughput over the last reporting interval.
+     */
+    double getMegabytesPerSecond();
+
+    double getAverageMegabytesPerSecond();
+
+    long getReadMillis();
+
+    long getDigestMillis();
+
+    long getWriteMillis();
+
+    long getReadLatencyP50Micros();
+
+    long getReadLatencyP99Micros();
+
+    long getDigestLatencyP50Micros();
+
+    long getDigestLatencyP99Micros();
+
+    long getWriteLatencyP50Micros();
+
+    long getWriteLatencyP99Micros();
+}
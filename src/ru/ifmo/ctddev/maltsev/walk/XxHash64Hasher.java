@@ -0,0 +1,127 @@
+package ru.ifmo.ctddev.maltsev.walk;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * XXH64 with zero seed, consuming the input in 32-byte stripes of four little-endian words.
+ */
+class XxHash64Hasher implements FileHasher {
+
+    private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME64_3 = 0x165667B19E3779F9L;
+    private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+    private static final int STRIPE = 32;
+
+    private final ByteBuffer tail = ByteBuffer.allocate(STRIPE).order(ByteOrder.LITTLE_ENDIAN);
+    private long v1, v2, v3, v4;
+    private long total;
+
+    XxHash64Hasher() {
+        reset();
+    }
+
+    @Override
+    public int length() {
+        return 8;
+    }
+
+    @Override
+    public void reset() {
+        v1 = PRIME64_1 + PRIME64_2;
+        v2 = PRIME64_2;
+        v3 = 0;
+        v4 = -PRIME64_1;
+        total = 0;
+        tail.clear();
+    }
+
+    @Override
+    public void update(ByteBuffer buffer) {
+        total += buffer.remaining();
+        if (tail.position() > 0) {
+            while (tail.hasRemaining() && buffer.hasRemaining()) {
+                tail.put(buffer.get());
+            }
+            if (tail.hasRemaining()) {
+                return;
+            }
+            stripes(tail, 0, STRIPE);
+            tail.clear();
+        }
+        int position = buffer.position();
+        int limit = buffer.limit();
+        int end = position + (limit - position) / STRIPE * STRIPE;
+        if (buffer.order() == ByteOrder.LITTLE_ENDIAN) {
+            stripes(buffer, position, end);
+        } else {
+            ByteOrder order = buffer.order();
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            stripes(buffer, position, end);
+            buffer.order(order);
+        }
+        for (int i = end; i < limit; i++) {
+            tail.put(buffer.get(i));
+        }
+        buffer.position(limit);
+    }
+
+    private void stripes(ByteBuffer buffer, int from, int to) {
+        long a = v1, b = v2, c = v3, d = v4;
+        for (int i = from; i < to; i += STRIPE) {
+            a = round(a, buffer.getLong(i));
+            b = round(b, buffer.getLong(i + 8));
+            c = round(c, buffer.getLong(i + 16));
+            d = round(d, buffer.getLong(i + 24));
+        }
+        v1 = a;
+        v2 = b;
+        v3 = c;
+        v4 = d;
+    }
+
+    private static long round(long acc, long input) {
+        return Long.rotateLeft(acc + input * PRIME64_2, 31) * PRIME64_1;
+    }
+
+    private static long merge(long acc, long value) {
+        return (acc ^ round(0, value)) * PRIME64_1 + PRIME64_4;
+    }
+
+    @Override
+    public void digest(byte[] digest) {
+        long h;
+        if (total >= STRIPE) {
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = merge(h, v1);
+            h = merge(h, v2);
+            h = merge(h, v3);
+            h = merge(h, v4);
+        } else {
+            h = PRIME64_5;
+        }
+        h += total;
+
+        int i = 0;
+        int end = tail.position();
+        for (; i + 8 <= end; i += 8) {
+            h = Long.rotateLeft(h ^ round(0, tail.getLong(i)), 27) * PRIME64_1 + PRIME64_4;
+        }
+        if (i + 4 <= end) {
+            h = Long.rotateLeft(h ^ (tail.getInt(i) & 0xffffffffL) * PRIME64_1, 23) * PRIME64_2 + PRIME64_3;
+            i += 4;
+        }
+        for (; i < end; i++) {
+            h = Long.rotateLeft(h ^ (tail.get(i) & 0xff) * PRIME64_5, 11) * PRIME64_1;
+        }
+
+        h ^= h >>> 33;
+        h *= PRIME64_2;
+        h ^= h >>> 29;
+        h *= PRIME64_3;
+        h ^= h >>> 32;
+        Digests.putLong(digest, h);
+    }
+}